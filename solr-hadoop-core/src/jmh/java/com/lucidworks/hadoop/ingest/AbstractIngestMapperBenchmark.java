@@ -0,0 +1,141 @@
+package com.lucidworks.hadoop.ingest;
+
+import com.lucidworks.hadoop.io.LWDocument;
+import com.lucidworks.hadoop.io.LWDocumentWritable;
+import com.lucidworks.hadoop.io.impl.LWMockDocument;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.Counters;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reporter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the per-record cost of {@link AbstractIngestMapper#map} for a mapper that emits one small
+ * document per record. Run with the gc profiler (the default for the jmh task) and compare
+ * gc.alloc.rate.norm between the two values of reuseWritables.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class AbstractIngestMapperBenchmark {
+
+  @Param({"false", "true"})
+  public boolean reuseWritables;
+
+  private final LongWritable key = new LongWritable();
+  private final Text value = new Text("id-1,The quick brown fox,jumped,head,gretzky");
+  private final CounterReporter reporter = new CounterReporter();
+  private SingleDocumentMapper mapper;
+  private OutputCollector<Text, LWDocumentWritable> output;
+
+  @Setup
+  public void setUp(final Blackhole blackhole) {
+    JobConf conf = new JobConf();
+    conf.set("io.serializations", "com.lucidworks.hadoop.io.impl.LWMockSerealization");
+    conf.setBoolean(AbstractIngestMapper.REUSE_WRITABLES, reuseWritables);
+    mapper = new SingleDocumentMapper();
+    mapper.configure(conf);
+    output = new OutputCollector<Text, LWDocumentWritable>() {
+      @Override
+      public void collect(Text key, LWDocumentWritable value) throws IOException {
+        blackhole.consume(key);
+        blackhole.consume(value);
+      }
+    };
+  }
+
+  @Benchmark
+  public void map() throws IOException {
+    key.set(key.get() + 1);
+    mapper.map(key, value, output, reporter);
+  }
+
+  static class SingleDocumentMapper extends AbstractIngestMapper<LongWritable, Text> {
+    private final Map<String, String> fields = new HashMap<>();
+
+    private final AbstractJobFixture fixture = new AbstractJobFixture() {
+      @Override
+      public void init(JobConf conf) throws IOException {
+      }
+    };
+
+    SingleDocumentMapper() {
+      fields.put("body", "The quick brown fox");
+    }
+
+    @Override
+    public AbstractJobFixture getFixture() {
+      return fixture;
+    }
+
+    @Override
+    protected LWDocument[] toDocuments(LongWritable key, Text value, Reporter reporter,
+        Configuration conf) throws IOException {
+      return new LWDocument[] {new LWMockDocument("doc-" + key.get(), fields)};
+    }
+  }
+
+  static class CounterReporter implements Reporter {
+    private final Counters counters = new Counters();
+
+    @Override
+    public void setStatus(String status) {
+    }
+
+    @Override
+    public Counters.Counter getCounter(Enum<?> name) {
+      return counters.findCounter(name);
+    }
+
+    @Override
+    public Counters.Counter getCounter(String group, String name) {
+      return counters.findCounter(group, name);
+    }
+
+    @Override
+    public void incrCounter(Enum<?> key, long amount) {
+      counters.incrCounter(key, amount);
+    }
+
+    @Override
+    public void incrCounter(String group, String counter, long amount) {
+      counters.incrCounter(group, counter, amount);
+    }
+
+    @Override
+    public InputSplit getInputSplit() throws UnsupportedOperationException {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public float getProgress() {
+      return 0;
+    }
+
+    @Override
+    public void progress() {
+    }
+  }
+}
@@ -1,7 +1,6 @@
 package com.lucidworks.hadoop.ingest;
 
 import com.lucidworks.hadoop.io.LWDocument;
-import com.lucidworks.hadoop.io.LWDocumentProvider;
 import com.lucidworks.hadoop.io.LWDocumentWritable;
 
 import org.apache.hadoop.conf.Configuration;
@@ -22,14 +21,47 @@ import java.io.IOException;
  * <p/>
  * Needs to define how records are transformed (see toDocuments) and how this
  * Mapper is configured (see getFixture)
+ * <p/>
+ * The emitted key and value instances are reused across records when the map output is serialized
+ * on collect (see {@link #REUSE_WRITABLES}).
  */
 public abstract class AbstractIngestMapper<K extends Writable, V extends Writable> extends BaseHadoopIngest
   implements Mapper<K, V, Text, LWDocumentWritable> {
 
   protected static final Logger log = LoggerFactory.getLogger(AbstractIngestMapper.class);
 
+  /**
+   * Reuse one Text key and one LWDocumentWritable value for every emitted document. This is only
+   * safe when the OutputCollector serializes what it is given, so it defaults to true for jobs
+   * with reducers only: in map-only jobs the RecordWriter receives the instances directly and may
+   * keep references to them.
+   */
+  public static final String REUSE_WRITABLES = "lww.mapper.reuse.writables";
+
+  /**
+   * Returned by {@link #toDocuments(Writable, Writable, Reporter, Configuration)} for a record
+   * skipped on purpose, which unlike a record without documents isn't a conversion failure
+   */
+  protected static final LWDocument[] SKIPPED = new LWDocument[0];
+
+  /**
+   * Returned by {@link #toDocuments(Writable, Writable, Reporter, Configuration, DocumentConsumer)}
+   * for a record skipped on purpose
+   */
+  protected static final int SKIPPED_COUNT = -1;
+
+  private boolean reuseWritables = false;
+  private final Text outputKey = new Text();
+  private final LWDocumentWritable outputValue = new LWDocumentWritable();
+  private Reporter counterReporter;
+  private org.apache.hadoop.mapred.Counters.Counter docsAddedCounter;
+  private final Emitter emitter = new Emitter();
+  private ProcessingStage processing;
+
   public void configure(JobConf conf) {
     super.configure(conf);
+    reuseWritables = conf.getBoolean(REUSE_WRITABLES, conf.getNumReduceTasks() > 0);
+    processing = new ProcessingStage(conf);
   }
 
   @Override
@@ -39,37 +71,126 @@ public abstract class AbstractIngestMapper<K extends Writable, V extends Writabl
     OutputCollector<Text, LWDocumentWritable> output,
     Reporter reporter) throws IOException {
 
-    LWDocument[] documents = null;
-
+    emitter.output = output;
+    emitter.reporter = reporter;
+    int count = 0;
     try {
-      documents = toDocuments(key, value, reporter, conf);
+      count = toDocuments(key, value, reporter, conf, emitter);
     } catch (OutOfMemoryError e) {
       log.error("Ran out of memory trying to convert: " + key, e);
       reporter.getCounter(Counters.DOCS_CONVERT_FAILED).increment(1);
     }
-    if (documents != null && documents.length > 0) {
-      // XXX: can we batch put these into the OutputFormat? can we still deal w/ the errors properly
-      for (LWDocument doc : documents) {
-        log.debug("AIM doc: " + doc.getId());
-        LWDocument[] processedDocs = LWDocumentProvider.processIfNeeded(doc, (JobConf) conf);
-        for (LWDocument processed : processedDocs) {
-          output.collect(new Text(doc.getId()), new LWDocumentWritable(processed));
-          reporter.getCounter(Counters.DOCS_ADDED).increment(1);
-        }
-      }
-    } else {
+    if (count == 0) {
       log.warn("No documents were created for key: {}", key);
       reporter.getCounter(Counters.DOCS_CONVERT_FAILED).increment(1);
     }
   }
 
+  @Override
+  public void close() throws IOException {
+    if (processing != null) {
+      processing.close();
+    }
+    super.close();
+  }
+
+  private void emit(
+    String id,
+    LWDocument doc,
+    OutputCollector<Text, LWDocumentWritable> output,
+    Reporter reporter) throws IOException {
+    if (reuseWritables) {
+      outputKey.set(id);
+      outputValue.setLWDocument(doc);
+      output.collect(outputKey, outputValue);
+    } else {
+      output.collect(new Text(id), new LWDocumentWritable(doc));
+    }
+    if (reporter != counterReporter) {
+      counterReporter = reporter;
+      docsAddedCounter = reporter.getCounter(Counters.DOCS_ADDED);
+    }
+    if (docsAddedCounter != null) {
+      docsAddedCounter.increment(1);
+    } else {
+      reporter.incrCounter(Counters.DOCS_ADDED, 1);
+    }
+  }
+
+  /**
+   * Can the records of a task be mapped by several instances of this mapper at once, one per thread
+   * (see {@link ParallelIngestMapRunner})? Mappers sharing state that is not thread safe between
+   * instances must return false.
+   */
+  public boolean supportsParallelMap() {
+    return true;
+  }
+
+  /**
+   * Transform the key and value into documents, handing each one to the consumer as soon as it is
+   * converted, so mappers reading many documents from one record don't have to hold them all. This
+   * is called from within the map method in the MapReduce execution context, and by default
+   * consumes the documents of {@link #toDocuments(Writable, Writable, Reporter, Configuration)}.
+   *
+   * @return the number of documents converted, {@link #SKIPPED_COUNT} if the record was skipped on
+   * purpose
+   */
+  protected int toDocuments(
+    K key,
+    V value,
+    Reporter reporter,
+    Configuration conf,
+    DocumentConsumer consumer) throws IOException {
+    LWDocument[] documents = toDocuments(key, value, reporter, conf);
+    if (documents == null) {
+      return 0;
+    } else if (documents == SKIPPED) {
+      return SKIPPED_COUNT;
+    }
+    for (LWDocument doc : documents) {
+      consumer.accept(doc);
+    }
+    return documents.length;
+  }
+
   /**
    * Transform the key and value into a set of PipelineDocuments. This is called
    * from within the map method in the MapReduce execution context
+   *
+   * @return the documents, null or none if the record couldn't be converted, {@link #SKIPPED} if it
+   * was skipped on purpose
    */
   protected abstract LWDocument[] toDocuments(
     K key,
     V value,
     Reporter reporter,
     Configuration conf) throws IOException;
+
+  /**
+   * Receives the documents converted from a record
+   */
+  public interface DocumentConsumer {
+    void accept(LWDocument doc) throws IOException;
+  }
+
+  /**
+   * Processes the documents of the record being mapped and emits them
+   */
+  private final class Emitter implements DocumentConsumer {
+    private OutputCollector<Text, LWDocumentWritable> output;
+    private Reporter reporter;
+
+    @Override
+    public void accept(LWDocument doc) throws IOException {
+      String id = doc.getId();
+      log.debug("AIM doc: {}", id);
+      LWDocument[] processedDocs = processing.process(doc, reporter);
+      // XXX: can we batch put these into the OutputFormat? can we still deal w/ the errors properly
+      // Not from here: collect() hands over one document at a time, so the batches and their
+      // per-document errors have to be handled by the RecordWriter of the io module.
+      for (LWDocument processed : processedDocs) {
+        emit(id, processed, output, reporter);
+      }
+    }
+  }
 }
@@ -1,13 +1,20 @@
 package com.lucidworks.hadoop.ingest;
 
+import com.lucidworks.hadoop.ingest.util.CSVTokenizer;
+import com.lucidworks.hadoop.io.CSVInputFormat;
 import com.lucidworks.hadoop.io.LWDocument;
 
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVStrategy;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.InputSplit;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.Reporter;
 import org.apache.hadoop.mapred.TextInputFormat;
@@ -15,17 +22,42 @@ import org.apache.solr.common.util.StrUtils;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.temporal.ChronoField;
+import java.time.temporal.TemporalAccessor;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
 import static com.lucidworks.hadoop.utils.ConfigurationKeys.COLLECTION;
 
 /**
- *
- *
+ * Creates one document per CSV line, with the fields named by {@link #CSV_FIELD_MAPPING} or
+ * field_N by default. The first column is the document id unless the mapping names the idField.
+ * With {@link #CSV_MULTI_LINE}, records are read with {@link CSVInputFormat} and encapsulated values
+ * may span lines.
+ * <p/>
+ * With {@link #CSV_HEADER}, the first line of every file names its columns. Fields listed in
+ * {@link #CSV_FIELD_TYPES} are added as Long, Double or Date values; values that don't convert are
+ * dropped and counted.
+ * <p/>
+ * Lines are tokenized straight from the Text bytes with a {@link CSVTokenizer}; strategies it can't
+ * handle (unicode escapes, non ASCII special characters) go through CSVParser.
  **/
 public class CSVIngestMapper extends AbstractIngestMapper<LongWritable, Text> {
 
@@ -33,12 +65,57 @@ public class CSVIngestMapper extends AbstractIngestMapper<LongWritable, Text> {
   public static final String CSV_DELIMITER = "csvDelimiter";
   public static final String CSV_IGNORE_FIRST_LINE_COMMENT = "csvFirstLineComment";
   public static final String CSV_STRATEGY = "csvStrategy";
+  // use CSVInputFormat, for encapsulated values containing new lines
+  public static final String CSV_MULTI_LINE = "csvMultiLine";
+  // name the fields after the first line of each file
+  public static final String CSV_HEADER = "csvHeader";
+  // field=type pairs, type being one of long, double, date or string
+  public static final String CSV_FIELD_TYPES = "csvFieldTypes";
+  // DateTimeFormatter pattern of the date fields, by default an ISO 8601 date with an optional time
+  // and offset (2020-01-31, 2020-01-31T10:15:30 or 2020-01-31T10:15:30+01:00)
+  public static final String CSV_DATE_FORMAT = "csvDateFormat";
   public static final String DEFAULT_STRATEGY = "default";
   public static final String EXCEL_STRATEGY = "excel";
   public static final String TAB_DELIM_STRATEGY = "tdf";
 
   protected Map<Integer, String> fieldMap = null;
   protected CSVStrategy strategy = null;
+  // fieldMap as an array indexed by column, null for unmapped columns
+  protected String[] fieldNames = new String[0];
+  private String[] defaultFieldNames = new String[0];
+  private CSVTokenizer tokenizer = null;
+  // the type of each column, null for strings
+  private FieldType[] columnTypes = new FieldType[0];
+  private Map<String, FieldType> fieldTypes = Collections.emptyMap();
+  static final DateTimeFormatter DEFAULT_DATE_FORMAT = new DateTimeFormatterBuilder()
+      .parseCaseInsensitive()
+      .append(DateTimeFormatter.ISO_LOCAL_DATE)
+      .optionalStart()
+      .appendLiteral('T')
+      .append(DateTimeFormatter.ISO_LOCAL_TIME)
+      .optionalStart()
+      .appendOffsetId()
+      .optionalStart()
+      .appendLiteral('[')
+      .parseCaseSensitive()
+      .appendZoneRegionId()
+      .appendLiteral(']')
+      .toFormatter();
+  private DateTimeFormatter dateFormat = DEFAULT_DATE_FORMAT;
+  private boolean header = false;
+  private final Map<String, String[]> headers = new LinkedHashMap<String, String[]>() {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, String[]> eldest) {
+      return size() > MAX_CACHED_HEADERS;
+    }
+  };
+  private InputSplit headerSplit = null;
+
+  private static final int MAX_CACHED_HEADERS = 64;
+
+  private enum FieldType {
+    STRING, LONG, DOUBLE, DATE
+  }
 
   private static final String DEFAULT_FIELD_NAME = "field_";
   private final AbstractJobFixture fixture = new AbstractJobFixture() {
@@ -46,7 +123,11 @@ public class CSVIngestMapper extends AbstractIngestMapper<LongWritable, Text> {
     public void init(JobConf conf) throws IOException {
       boolean override = conf.getBoolean(IngestJob.INPUT_FORMAT_OVERRIDE, false);
       if (!override) {
-        conf.setInputFormat(TextInputFormat.class);
+        if (conf.getBoolean(CSV_MULTI_LINE, false)) {
+          conf.setInputFormat(CSVInputFormat.class);
+        } else {
+          conf.setInputFormat(TextInputFormat.class);
+        }
       }// else the user has overridden the input format and we assume it is OK.
       byte[] delimiterBase64 = Base64.encodeBase64(conf.get(CSV_DELIMITER, "").getBytes());
       conf.set(CSV_DELIMITER, new String(delimiterBase64));
@@ -68,13 +149,7 @@ public class CSVIngestMapper extends AbstractIngestMapper<LongWritable, Text> {
       throw new RuntimeException("No collection specified, aborting");
     }
     ignoreFirstLine = Boolean.parseBoolean(conf.get(CSV_IGNORE_FIRST_LINE_COMMENT, "false"));
-    String delimiterStr = conf.get(CSV_DELIMITER);
-    if (delimiterStr != null) {
-      byte[] delimiterBase64 = Base64.decodeBase64(delimiterStr.getBytes());
-      delimiterStr = new String(delimiterBase64);
-    }
-
-    // we get a string, but we only use the first character, as delimiters must be a 'char'
+    header = conf.getBoolean(CSV_HEADER, false);
     String fieldMapStr = conf.get(CSV_FIELD_MAPPING);
 
     if (fieldMapStr == null) {
@@ -83,6 +158,42 @@ public class CSVIngestMapper extends AbstractIngestMapper<LongWritable, Text> {
     } else {
       fieldMap = parseFieldMapStr(fieldMapStr);
     }
+    strategy = createStrategy(conf);
+    fieldNames = toFieldNames(fieldMap);
+    String fieldTypesStr = conf.get(CSV_FIELD_TYPES);
+    if (fieldTypesStr != null) {
+      fieldTypes = parseFieldTypesStr(fieldTypesStr);
+    }
+    String dateFormatStr = conf.get(CSV_DATE_FORMAT);
+    if (dateFormatStr != null) {
+      try {
+        dateFormat = DateTimeFormatter.ofPattern(dateFormatStr);
+      } catch (IllegalArgumentException e) {
+        throw new RuntimeException("Invalid date format passed in: " + dateFormatStr, e);
+      }
+    }
+    columnTypes = toColumnTypes(fieldNames);
+    if (CSVTokenizer.supports(strategy)) {
+      tokenizer = new CSVTokenizer(strategy);
+    } else {
+      log.info("CSV strategy {} is parsed with CSVParser", conf.get(CSV_STRATEGY, DEFAULT_STRATEGY));
+      tokenizer = null;
+    }
+  }
+
+  /**
+   * Build the CSVStrategy named by {@link #CSV_STRATEGY}, with the {@link #CSV_DELIMITER} set by
+   * the job fixture
+   */
+  public static CSVStrategy createStrategy(JobConf conf) {
+    String delimiterStr = conf.get(CSV_DELIMITER);
+    if (delimiterStr != null) {
+      byte[] delimiterBase64 = Base64.decodeBase64(delimiterStr.getBytes());
+      delimiterStr = new String(delimiterBase64);
+    }
+
+    // we get a string, but we only use the first character, as delimiters must be a 'char'
+    CSVStrategy strategy;
     String stratStr = conf.get(CSV_STRATEGY, DEFAULT_STRATEGY);
     if (stratStr.equalsIgnoreCase(DEFAULT_STRATEGY)) {
       strategy = copyStrategy(CSVStrategy.DEFAULT_STRATEGY);
@@ -109,6 +220,47 @@ public class CSVIngestMapper extends AbstractIngestMapper<LongWritable, Text> {
         throw new RuntimeException("Couldn't load CSVStrategy class, aborting");
       }
     }
+    return strategy;
+  }
+
+  private static String[] toFieldNames(Map<Integer, String> fieldMap) {
+    int columns = 0;
+    for (Integer column : fieldMap.keySet()) {
+      columns = Math.max(columns, column + 1);
+    }
+    String[] names = new String[columns];
+    for (Map.Entry<Integer, String> entry : fieldMap.entrySet()) {
+      if (entry.getKey() >= 0) {
+        names[entry.getKey()] = entry.getValue();
+      }
+    }
+    return names;
+  }
+
+  private static Map<String, FieldType> parseFieldTypesStr(String fieldTypesStr) {
+    Map<String, FieldType> result = new HashMap<>();
+    // looks like: name=type,name=type, ....
+    for (String keyValue : StrUtils.splitSmart(fieldTypesStr, ',')) {
+      String[] splits = keyValue.split("=");
+      if (splits.length != 2) {
+        throw new RuntimeException("Invalid field types passed in: " + fieldTypesStr);
+      }
+      try {
+        result.put(splits[0].trim(), FieldType.valueOf(splits[1].trim().toUpperCase(Locale.ROOT)));
+      } catch (IllegalArgumentException e) {
+        throw new RuntimeException("Invalid field type passed in: " + keyValue);
+      }
+    }
+    return result;
+  }
+
+  private FieldType[] toColumnTypes(String[] names) {
+    FieldType[] types = new FieldType[names.length];
+    for (int i = 0; i < names.length; i++) {
+      FieldType type = names[i] != null ? fieldTypes.get(names[i]) : null;
+      types[i] = type == FieldType.STRING ? null : type;
+    }
+    return types;
   }
 
   private Map<Integer, String> parseFieldMapStr(String fieldMapStr) {
@@ -134,11 +286,42 @@ public class CSVIngestMapper extends AbstractIngestMapper<LongWritable, Text> {
   protected LWDocument[] toDocuments(LongWritable key, Text value, Reporter reporter,
                                      Configuration conf) throws IOException {
 
-    if (ignoreFirstLine && key.get() == 0) {
+    if (header) {
+      if (key.get() == 0) {
+        // the header, read by useHeaderOf
+        return null;
+      }
+      useHeaderOf(reporter.getInputSplit(), conf);
+    } else if (ignoreFirstLine && key.get() == 0) {
       // Ignoring the First Line
       return null;
     }
 
+    if (tokenizer == null) {
+      return parseWithCSVParser(key, value, reporter);
+    }
+    try {
+      int cells = tokenizer.tokenize(value.getBytes(), 0, value.getLength());
+      if (cells == 0) {
+        log.warn("No values for document with key: {}, skipping", key.get());
+        return null;
+      }
+
+      LWDocument document = createDocument();
+      for (int i = 0; i < cells; i++) {
+        if (tokenizer.isBlank(i)) {
+          continue;
+        }
+        addValue(document, i, tokenizer.getTrimmed(i), reporter);
+      }
+      return new LWDocument[] {document};
+    } catch (IOException e) {
+      log.error("Unable to parse document with key: {} value: {}", key.get(), value, e);
+    }
+    return null;
+  }
+
+  private LWDocument[] parseWithCSVParser(LongWritable key, Text value, Reporter reporter) throws IOException {
     CSVParser parser = new CSVParser(
       new InputStreamReader(new ByteArrayInputStream(value.getBytes(), 0, value.getLength()), "UTF-8"), strategy);
 
@@ -155,26 +338,7 @@ public class CSVIngestMapper extends AbstractIngestMapper<LongWritable, Text> {
         if (null == rowValue || rowValue.trim().isEmpty()) {
           continue;
         }
-        rowValue = rowValue.trim();
-        String name = fieldMap.get(i);
-        if (name != null) {
-          if (i == 0 && useDefaultId) {
-            // by default, the first string in vals will be the document id
-            document.setId(rowValue);
-          } else {
-            if (!useDefaultId && name.equals(idField)) {
-              document.setId(rowValue);
-            } else {
-              document.addField(name, rowValue);
-            }
-          }
-        } else {
-          if (i == 0) {
-            document.setId(rowValue);
-          } else {
-            document.addField(DEFAULT_FIELD_NAME + i, rowValue);
-          }
-        }
+        addValue(document, i, rowValue.trim(), reporter);
       }
       return new LWDocument[] {document};
     } catch (IOException e) {
@@ -183,6 +347,133 @@ public class CSVIngestMapper extends AbstractIngestMapper<LongWritable, Text> {
     return null;
   }
 
+  private void addValue(LWDocument document, int i, String rowValue, Reporter reporter) {
+    String name = i < fieldNames.length ? fieldNames[i] : null;
+    if (name != null) {
+      if (i == 0 && useDefaultId) {
+        // by default, the first string in vals will be the document id
+        document.setId(rowValue);
+      } else {
+        if (!useDefaultId && name.equals(idField)) {
+          document.setId(rowValue);
+        } else {
+          addTypedField(document, name, i < columnTypes.length ? columnTypes[i] : null, rowValue, reporter);
+        }
+      }
+    } else {
+      if (i == 0) {
+        document.setId(rowValue);
+      } else {
+        String defaultName = defaultFieldName(i);
+        addTypedField(document, defaultName, fieldTypes.get(defaultName), rowValue, reporter);
+      }
+    }
+  }
+
+  private void addTypedField(LWDocument document, String name, FieldType type, String rowValue,
+                             Reporter reporter) {
+    if (type == null || type == FieldType.STRING) {
+      document.addField(name, rowValue);
+      return;
+    }
+    try {
+      switch (type) {
+        case LONG:
+          document.addField(name, Long.parseLong(rowValue));
+          break;
+        case DOUBLE:
+          document.addField(name, Double.parseDouble(rowValue));
+          break;
+        default:
+          document.addField(name, parseDate(rowValue));
+      }
+    } catch (NumberFormatException | DateTimeException e) {
+      log.debug("Unable to convert the value '{}' of field {} to {}", rowValue, name, type);
+      reporter.incrCounter("CSVIngestMapper", "FieldConversionFailed", 1);
+    }
+  }
+
+  /**
+   * Dates without a time are at the start of the day, dates without a zone are UTC
+   */
+  private Date parseDate(String value) {
+    TemporalAccessor parsed = dateFormat.parse(value);
+    Instant instant;
+    if (parsed.isSupported(ChronoField.INSTANT_SECONDS)) {
+      instant = Instant.from(parsed);
+    } else if (parsed.isSupported(ChronoField.HOUR_OF_DAY)) {
+      instant = LocalDateTime.from(parsed).toInstant(ZoneOffset.UTC);
+    } else {
+      instant = LocalDate.from(parsed).atStartOfDay(ZoneOffset.UTC).toInstant();
+    }
+    return Date.from(instant);
+  }
+
+  /**
+   * Name the columns after the header of the file of the split, read once per file. The
+   * {@link #CSV_FIELD_MAPPING} entries take precedence over the header.
+   */
+  private void useHeaderOf(InputSplit split, Configuration conf) throws IOException {
+    if (split == headerSplit) {
+      return;
+    }
+    if (!(split instanceof FileSplit)) {
+      throw new IOException(CSV_HEADER + " needs file splits, got " + split);
+    }
+    Path path = ((FileSplit) split).getPath();
+    String[] names = headers.get(path.toString());
+    if (names == null) {
+      names = readHeader(path, conf);
+      headers.put(path.toString(), names);
+      log.info("Using the header of {}: {}", path, Arrays.toString(names));
+    }
+    fieldNames = Arrays.copyOf(names, names.length);
+    for (Map.Entry<Integer, String> entry : fieldMap.entrySet()) {
+      if (entry.getKey() >= 0) {
+        if (entry.getKey() >= fieldNames.length) {
+          fieldNames = Arrays.copyOf(fieldNames, entry.getKey() + 1);
+        }
+        fieldNames[entry.getKey()] = entry.getValue();
+      }
+    }
+    useDefaultId = !Arrays.asList(fieldNames).contains(idField);
+    columnTypes = toColumnTypes(fieldNames);
+    headerSplit = split;
+  }
+
+  private String[] readHeader(Path path, Configuration conf) throws IOException {
+    InputStream in = path.getFileSystem(conf).open(path);
+    CompressionCodec codec = new CompressionCodecFactory(conf).getCodec(path);
+    if (codec != null) {
+      in = codec.createInputStream(in);
+    }
+    try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+      String[] row = new CSVParser(reader, strategy).getLine();
+      if (row == null) {
+        return new String[0];
+      }
+      String[] names = new String[row.length];
+      for (int i = 0; i < row.length; i++) {
+        // a UTF-8 byte order mark is not part of the first name
+        String name = i == 0 && row[i].startsWith("\uFEFF") ? row[i].substring(1) : row[i];
+        names[i] = name.trim().isEmpty() ? null : name.trim();
+      }
+      return names;
+    }
+  }
+
+  private String defaultFieldName(int i) {
+    if (i >= defaultFieldNames.length) {
+      String[] names = new String[Math.max(i + 1, defaultFieldNames.length * 2)];
+      System.arraycopy(defaultFieldNames, 0, names, 0, defaultFieldNames.length);
+      defaultFieldNames = names;
+    }
+    if (defaultFieldNames[i] == null) {
+      defaultFieldNames[i] = DEFAULT_FIELD_NAME + i;
+    }
+    return defaultFieldNames[i];
+  }
+
   @Override
   public AbstractJobFixture getFixture() {
     return fixture;
@@ -196,7 +487,7 @@ public class CSVIngestMapper extends AbstractIngestMapper<LongWritable, Text> {
    * This method copies the provided CSVStrategy, so that mutators can be safely used with the static CSVStrategy
    * constants.
    */
-  private CSVStrategy copyStrategy(CSVStrategy strategy) {
+  private static CSVStrategy copyStrategy(CSVStrategy strategy) {
     return new CSVStrategy(strategy.getDelimiter(), strategy.getEncapsulator(), strategy.getCommentStart(),
             strategy.getEscape(), strategy.getIgnoreLeadingWhitespaces(), strategy.getIgnoreTrailingWhitespaces(),
             strategy.getUnicodeEscapeInterpretation(), strategy.getIgnoreEmptyLines());
@@ -0,0 +1,87 @@
+package com.lucidworks.hadoop.ingest;
+
+import com.lucidworks.hadoop.io.LWDocumentWritable;
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.Reporter;
+
+/**
+ * Keeps one of the documents sharing an id, so that duplicates across the inputs are sent to Solr
+ * once. Hadoop doesn't order the values of a key, so without {@link #VERSION_FIELD} any one of them is
+ * kept. With it, the document with the highest value of that field is kept, comparing numbers (and
+ * dates) by value and anything else as strings, so ISO timestamps work too. Documents without the
+ * field lose to those with it.
+ * <p/>
+ * With {@link #COUNT_FIELD}, the kept document gets a field with the number of documents that had
+ * its id.
+ */
+public class DeduplicatingReduceStage implements ReduceStage {
+
+  public static final String VERSION_FIELD = "lww.reduce.dedup.version.field";
+  public static final String COUNT_FIELD = "lww.reduce.dedup.count.field";
+
+  private String versionField;
+  private String countField;
+
+  @Override
+  public void configure(JobConf conf) {
+    versionField = conf.get(VERSION_FIELD);
+    countField = conf.get(COUNT_FIELD);
+  }
+
+  @Override
+  public List<LWDocumentWritable> process(Text key, List<LWDocumentWritable> docs, Reporter reporter)
+      throws IOException {
+    if (docs.isEmpty()) {
+      return docs;
+    }
+    LWDocumentWritable kept = docs.get(0);
+    if (versionField != null) {
+      Object keptVersion = kept.getLWDocument().getFirstFieldValue(versionField);
+      for (int i = 1; i < docs.size(); i++) {
+        Object version = docs.get(i).getLWDocument().getFirstFieldValue(versionField);
+        if (compareVersions(version, keptVersion) > 0) {
+          kept = docs.get(i);
+          keptVersion = version;
+        }
+      }
+    }
+    if (countField != null) {
+      kept.getLWDocument().addField(countField, docs.size());
+    }
+    if (docs.size() > 1) {
+      reporter.incrCounter(IngestReducer.COUNTER_GROUP, IngestReducer.DUPLICATES_DROPPED, docs.size() - 1);
+    }
+    docs.clear();
+    docs.add(kept);
+    return docs;
+  }
+
+  static int compareVersions(Object a, Object b) {
+    if (a == null || b == null) {
+      return a == null ? (b == null ? 0 : -1) : 1;
+    }
+    Double x = toNumber(a);
+    Double y = toNumber(b);
+    if (x != null && y != null) {
+      return Double.compare(x, y);
+    }
+    return a.toString().compareTo(b.toString());
+  }
+
+  private static Double toNumber(Object value) {
+    if (value instanceof Number) {
+      return ((Number) value).doubleValue();
+    } else if (value instanceof Date) {
+      return (double) ((Date) value).getTime();
+    }
+    try {
+      return Double.valueOf(value.toString().trim());
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+}
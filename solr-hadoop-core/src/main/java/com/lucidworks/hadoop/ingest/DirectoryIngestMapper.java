@@ -1,15 +1,17 @@
 package com.lucidworks.hadoop.ingest;
 
+import com.lucidworks.hadoop.ingest.util.ContentSniffer;
+import com.lucidworks.hadoop.ingest.util.ContentSniffer.Action;
+import com.lucidworks.hadoop.io.BalancedFileListInputFormat;
 import com.lucidworks.hadoop.io.LWDocument;
 import com.lucidworks.hadoop.utils.CompressionHelper;
 
 import org.apache.hadoop.conf.Configuration;
-import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.IOUtils;
-import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.SequenceFile;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapred.FileInputFormat;
@@ -19,21 +21,64 @@ import org.apache.hadoop.mapred.SequenceFileInputFormat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.SequenceInputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
 
 import static com.lucidworks.hadoop.utils.ConfigurationKeys.MIME_TYPE;
 import static com.lucidworks.hadoop.utils.ConfigurationKeys.TEMP_DIR;
 
-public class DirectoryIngestMapper extends AbstractIngestMapper<Text, NullWritable> {
+/**
+ * Creates one document per file of the expanded input paths, with the raw file as content.
+ * <p/>
+ * The content of a document has to be held in memory, so files larger than
+ * {@link #DIRECTORY_MAX_CONTENT_BYTES} (after decompression) are indexed with their metadata only.
+ * Their size is checked before anything is read, compressed files are read up to the limit. The
+ * limit defaults to {@link #DEFAULT_MAX_CONTENT_BYTES}, or a quarter of the heap of the task if that
+ * is less; a negative limit only keeps the files the JVM can't hold in one array.
+ * <p/>
+ * With {@link ContentSniffer#SKIP_TYPES} or {@link ContentSniffer#METADATA_ONLY_TYPES}, the type of
+ * a file is detected on its first bytes, and the rest of the file is only read if it is indexed.
+ * <p/>
+ * The input globs are expanded on the client when the job is submitted; with
+ * {@link #DIRECTORY_LIST_THREADS} above 1 the directories are listed concurrently. Every file is
+ * recorded with its length, which {@link #DIRECTORY_BALANCED_SPLITS} uses to balance the map tasks,
+ * and which the mappers use instead of asking the NameNode for every file.
+ */
+public class DirectoryIngestMapper extends AbstractIngestMapper<Text, LongWritable> {
   private transient static Logger log = LoggerFactory.getLogger(DirectoryIngestMapper.class);
 
   public static final String DIRECTORY_ADD_SUBDIRECTORIES = "add.subdirectories";
+  public static final String DIRECTORY_MAX_CONTENT_BYTES = "directory.max.content.bytes";
+  public static final String DIRECTORY_LIST_THREADS = "directory.list.threads";
+  public static final String DIRECTORY_BALANCED_SPLITS = "directory.balanced.splits";
+
+  public static final int DEFAULT_LIST_THREADS = 1;
+  static final long LOG_PROGRESS_EVERY = 10000;
+
+  public static final String FILE_LENGTH_FIELD = "file_length";
+
+  public static final long DEFAULT_MAX_CONTENT_BYTES = 256L * 1024 * 1024;
+  // Largest byte[] the JVM will allocate
+  static final long MAX_CONTENT_BYTES = Integer.MAX_VALUE - 8;
+  private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+  private long maxContentBytes = DEFAULT_MAX_CONTENT_BYTES;
+  private ContentSniffer sniffer;
 
   private final AbstractJobFixture fixture = new AbstractJobFixture() {
     @Override
@@ -43,7 +88,11 @@ public class DirectoryIngestMapper extends AbstractIngestMapper<Text, NullWritab
       expandGlob(conf, actualInput, FileInputFormat.getInputPaths(conf));
 
       // Configure the real M/R job
-      conf.setInputFormat(SequenceFileInputFormat.class);
+      if (conf.getBoolean(DIRECTORY_BALANCED_SPLITS, false)) {
+        conf.setInputFormat(BalancedFileListInputFormat.class);
+      } else {
+        conf.setInputFormat(SequenceFileInputFormat.class);
+      }
       FileInputFormat.setInputPaths(conf, actualInput);
       conf.setMapperClass(DirectoryIngestMapper.class);
     }
@@ -52,6 +101,16 @@ public class DirectoryIngestMapper extends AbstractIngestMapper<Text, NullWritab
   @Override
   public void configure(JobConf conf) {
     super.configure(conf);
+    long configured = conf.getLong(DIRECTORY_MAX_CONTENT_BYTES,
+      defaultMaxContentBytes(Runtime.getRuntime().maxMemory()));
+    maxContentBytes = configured < 0 ? MAX_CONTENT_BYTES : Math.min(configured, MAX_CONTENT_BYTES);
+    sniffer = new ContentSniffer(conf);
+  }
+
+  static long defaultMaxContentBytes(long maxMemory) {
+    // maxMemory is Long.MAX_VALUE when the heap isn't bounded
+    return maxMemory == Long.MAX_VALUE ? DEFAULT_MAX_CONTENT_BYTES
+      : Math.min(DEFAULT_MAX_CONTENT_BYTES, maxMemory / 4);
   }
 
   @Override
@@ -65,12 +124,17 @@ public class DirectoryIngestMapper extends AbstractIngestMapper<Text, NullWritab
     Path... pathsToExpand) throws IOException {
     log.info("Expanding glob to a sequence file of inputs");
     SequenceFile.Writer writer = SequenceFile
-      .createWriter(output.getFileSystem(conf), conf, output, Text.class, NullWritable.class);
+      .createWriter(output.getFileSystem(conf), conf, output, Text.class, LongWritable.class);
     boolean addSubdirectories = conf.getBoolean(DIRECTORY_ADD_SUBDIRECTORIES, false);
+    int threads = conf.getInt(DIRECTORY_LIST_THREADS, DEFAULT_LIST_THREADS);
+    ExecutorService executor = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
     long i;
     try {
-      i = processPaths(conf, addSubdirectories, writer, pathsToExpand);
+      i = new GlobWalker(conf, addSubdirectories, writer, executor).walk(pathsToExpand);
     } finally {
+      if (executor != null) {
+        executor.shutdownNow();
+      }
       writer.sync();
       writer.close();
     }
@@ -78,34 +142,105 @@ public class DirectoryIngestMapper extends AbstractIngestMapper<Text, NullWritab
     log.info("Wrote {} values to {}", i, output.toString());
   }
 
-  private static long processPaths(
-    Configuration conf,
-    boolean addSubdirectories,
-    SequenceFile.Writer writer,
-    Path... pathsToExpand) throws IOException {
-    long counter = 0;
-    for (Path path : pathsToExpand) {
-      FileSystem fileSystem = path.getFileSystem(conf);
-      for (FileStatus fstat : fileSystem.globStatus(path)) {
+  /**
+   * Writes the files matching the globs, depth first and in listing order. Listings can run on an
+   * executor: the subdirectories of a directory are all submitted as soon as its listing is back, and
+   * are then waited for in order, so the output is the same as with a serial walk.
+   */
+  private static class GlobWalker {
+    private final Configuration conf;
+    private final boolean addSubdirectories;
+    private final SequenceFile.Writer writer;
+    private final ExecutorService executor;// null to list in the calling thread
+    private final Text uri = new Text();
+    private final LongWritable length = new LongWritable();
+    private long counter = 0;
+
+    GlobWalker(Configuration conf, boolean addSubdirectories, SequenceFile.Writer writer,
+               ExecutorService executor) {
+      this.conf = conf;
+      this.addSubdirectories = addSubdirectories;
+      this.writer = writer;
+      this.executor = executor;
+    }
+
+    long walk(Path... pathsToExpand) throws IOException {
+      for (Path path : pathsToExpand) {
+        process(path, get(list(path)));
+      }
+      return counter;
+    }
+
+    private void process(Path glob, FileStatus[] statuses) throws IOException {
+      if (statuses == null) {
+        log.warn("Nothing found at {}", glob);
+        return;
+      }
+      List<FutureTask<FileStatus[]>> subdirectories = new ArrayList<FutureTask<FileStatus[]>>();
+      if (addSubdirectories) {
+        for (FileStatus fstat : statuses) {
+          if (fstat.isDir()) {
+            subdirectories.add(list(subdirectoryGlob(fstat)));
+          }
+        }
+      }
+      int next = 0;
+      for (FileStatus fstat : statuses) {
         if (fstat.isDir()) {
           if (addSubdirectories == true) {
-            counter += processPaths(conf, addSubdirectories, writer, new Path(fstat.getPath().toUri()
-                                                                                   .toString() + "/*"));
+            process(subdirectoryGlob(fstat), get(subdirectories.get(next++)));
           }// TODO: should we log that we skipped the sub dir?
         } else {
-          writer.append(new Text(fstat.getPath().toUri().toString()), NullWritable.get());
+          uri.set(fstat.getPath().toUri().toString());
+          length.set(fstat.getLen());
+          writer.append(uri, length);
           counter++;
+          if (counter % LOG_PROGRESS_EVERY == 0) {
+            log.info("Expanded {} files so far", counter);
+          }
         }
       }
     }
-    return counter;
 
+    private static Path subdirectoryGlob(FileStatus dir) {
+      return new Path(dir.getPath().toUri().toString() + "/*");
+    }
+
+    private FutureTask<FileStatus[]> list(final Path glob) {
+      FutureTask<FileStatus[]> task = new FutureTask<FileStatus[]>(new Callable<FileStatus[]>() {
+        @Override
+        public FileStatus[] call() throws IOException {
+          return glob.getFileSystem(conf).globStatus(glob);
+        }
+      });
+      if (executor != null) {
+        executor.execute(task);
+      }
+      return task;
+    }
+
+    private FileStatus[] get(FutureTask<FileStatus[]> task) throws IOException {
+      if (executor == null) {
+        task.run();
+      }
+      try {
+        return task.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while expanding glob");
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof IOException) {
+          throw (IOException) e.getCause();
+        }
+        throw new IOException(e.getCause());
+      }
+    }
   }
 
   @Override
   public LWDocument[] toDocuments(
     Text uri,
-    NullWritable nullWritable,
+    LongWritable fileLength,
     Reporter reporter,
     Configuration conf) throws IOException {
     Path file;
@@ -116,30 +251,126 @@ public class DirectoryIngestMapper extends AbstractIngestMapper<Text, NullWritab
     }
     log.debug("Processing: {} conf: {}", file, conf);
     FileSystem fs = file.getFileSystem(conf);
+    // the length recorded when listing the file, if any
+    long length = fileLength != null && fileLength.get() >= 0 ? fileLength.get()
+      : fs.getFileStatus(file).getLen();
+    boolean compressed = CompressionHelper.isCompressed(file);
     byte[] ba = null;
 
-    // Checking if decompression is needed
-    if (CompressionHelper.isCompressed(file)) {
-      ByteArrayOutputStream baos = new ByteArrayOutputStream();
-      InputStream is = CompressionHelper.openCompressedFile(file, conf);
-      IOUtils.copyBytes(is, baos, 4096, true);
-      ba = baos.toByteArray();
-
-    } else {
-      ba = new byte[(int) fs.getFileStatus(file).getLen()];
-      FSDataInputStream fis = fs.open(file);
-      fis.readFully(ba);
-      fis.close();
-    }
-
     Map<String, String> metadata = new HashMap<String, String>();
     String mimeType = conf.get(MIME_TYPE, null);
     if (mimeType != null) {
       metadata.put(MIME_TYPE, mimeType);
     }
+
+    InputStream in = null;
+    try {
+      // Checking the type on the first bytes, before reading the rest
+      byte[] head = null;
+      int headLength = 0;
+      Action action = Action.INDEX;
+      if (sniffer.isEnabled()) {
+        in = compressed ? CompressionHelper.openCompressedFile(file, conf) : fs.open(file);
+        head = new byte[ContentSniffer.HEAD_BYTES];
+        headLength = readHead(in, head);
+        // the extension of a compressed file is the one under the compression's
+        String name = compressed ? stripExtension(file.getName()) : file.getName();
+        String type = sniffer.detect(head, 0, headLength, name);
+        action = sniffer.actionFor(type, uri.toString(), reporter);
+        if (action == Action.SKIP) {
+          return SKIPPED;
+        } else if (action == Action.METADATA_ONLY) {
+          metadata.put(FILE_LENGTH_FIELD, String.valueOf(length));
+          if (mimeType == null) {
+            metadata.put(MIME_TYPE, type);
+          }
+        }
+      }
+
+      if (action == Action.INDEX) {
+        // Checking if decompression is needed
+        if (compressed) {
+          if (in == null) {
+            in = CompressionHelper.openCompressedFile(file, conf);
+          } else {
+            in = new SequenceInputStream(new ByteArrayInputStream(head, 0, headLength), in);
+          }
+          ba = readAtMost(in, maxContentBytes);
+
+        } else if (length <= maxContentBytes) {
+          ba = new byte[(int) length];
+          if (in == null) {
+            in = fs.open(file);
+          } else {
+            System.arraycopy(head, 0, ba, 0, headLength);
+          }
+          IOUtils.readFully(in, ba, headLength, ba.length - headLength);
+        }
+
+        if (ba == null) {
+          log.warn("Content of {} is larger than {} bytes, indexing its metadata only", file, maxContentBytes);
+          reporter.incrCounter("DirectoryIngestMapper", "ContentTooLarge", 1);
+          metadata.put(FILE_LENGTH_FIELD, String.valueOf(length));
+        }
+      }
+    } finally {
+      IOUtils.closeStream(in);
+    }
+
     LWDocument doc = createDocument(uri.toString(), metadata);
-    doc.setContent(ba);
+    if (ba != null) {
+      doc.setContent(ba);
+    }
     return new LWDocument[]{doc};
   }
+
+  /**
+   * Read up to the length of the buffer, less only at the end of the stream.
+   *
+   * @return the number of bytes read
+   */
+  static int readHead(InputStream in, byte[] buffer) throws IOException {
+    int length = 0;
+    while (length < buffer.length) {
+      int read = in.read(buffer, length, buffer.length - length);
+      if (read < 0) {
+        break;
+      }
+      length += read;
+    }
+    return length;
+  }
+
+  private static String stripExtension(String name) {
+    int dot = name.lastIndexOf('.');
+    return dot > 0 ? name.substring(0, dot) : name;
+  }
+
+  /**
+   * Read and close the stream, growing the buffer as needed but never past the limit.
+   *
+   * @return the content, or null if the stream has more than limit bytes
+   */
+  static byte[] readAtMost(InputStream in, long limit) throws IOException {
+    try {
+      byte[] buffer = new byte[(int) Math.min(limit, READ_BUFFER_SIZE)];
+      int length = 0;
+      while (true) {
+        if (length == buffer.length) {
+          if (length >= limit) {
+            return in.read() < 0 ? buffer : null;
+          }
+          buffer = Arrays.copyOf(buffer, (int) Math.min(limit, Math.max(2L * length, READ_BUFFER_SIZE)));
+        }
+        int read = in.read(buffer, length, buffer.length - length);
+        if (read < 0) {
+          return length == buffer.length ? buffer : Arrays.copyOf(buffer, length);
+        }
+        length += read;
+      }
+    } finally {
+      IOUtils.closeStream(in);
+    }
+  }
 }
 
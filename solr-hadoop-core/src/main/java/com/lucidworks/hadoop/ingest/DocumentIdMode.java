@@ -0,0 +1,55 @@
+package com.lucidworks.hadoop.ingest;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.MD5Hash;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+
+import static com.lucidworks.hadoop.utils.ConfigurationKeys.ID_MODE;
+
+/**
+ * How the line oriented mappers (regex, grok) build the id of the document of a record, set with
+ * {@link com.lucidworks.hadoop.utils.ConfigurationKeys#ID_MODE}. Only the timestamp mode gives a
+ * new id when a job is run again: with the others, re-ingesting the same input overwrites the same
+ * documents.
+ */
+public enum DocumentIdMode {
+  /**
+   * path-key-current time in ms, the default
+   */
+  TIMESTAMP,
+  /**
+   * path-key, where the key is the byte offset of the line for text inputs
+   */
+  OFFSET,
+  /**
+   * the MD5 of the record: records with the same content make one document
+   */
+  HASH;
+
+  public static DocumentIdMode fromConfiguration(Configuration conf) {
+    String mode = conf.get(ID_MODE, TIMESTAMP.name());
+    try {
+      return valueOf(mode.trim().toUpperCase(Locale.ROOT));
+    } catch (IllegalArgumentException e) {
+      throw new RuntimeException("Unknown " + ID_MODE + ": " + mode + ", expected timestamp, offset or hash");
+    }
+  }
+
+  public String createId(String path, Writable key, Writable value) {
+    switch (this) {
+      case OFFSET:
+        return path + "-" + key;
+      case HASH:
+        if (value instanceof Text) {
+          Text text = (Text) value;
+          return MD5Hash.digest(text.getBytes(), 0, text.getLength()).toString();
+        }
+        return MD5Hash.digest(value.toString().getBytes(StandardCharsets.UTF_8)).toString();
+      default:
+        return path + "-" + key + "-" + System.currentTimeMillis();
+    }
+  }
+}
@@ -1,6 +1,7 @@
 package com.lucidworks.hadoop.ingest;
 
 import com.lucidworks.hadoop.cache.DistributedCacheHandler;
+import com.lucidworks.hadoop.ingest.util.GrokFilter;
 import com.lucidworks.hadoop.ingest.util.GrokHelper;
 import com.lucidworks.hadoop.io.LWDocument;
 import org.apache.hadoop.conf.Configuration;
@@ -8,30 +9,48 @@ import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.InputSplit;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.Reporter;
 import org.jruby.RubyHash;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.script.Compilable;
+import javax.script.CompiledScript;
 import javax.script.ScriptContext;
 import javax.script.ScriptEngine;
 import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
+/**
+ * Parses log lines with a Logstash grok configuration. The JRuby engine, the Logstash filters and the
+ * matcher script are set up once per task in {@link #configure(JobConf)}; each line only evaluates
+ * the already compiled matcher.
+ * <p/>
+ * With {@link #GROK_ENGINE} set to {@value #NATIVE_GROK_ENGINE} the grok filters of the same
+ * configuration are compiled to java.util.regex patterns instead and JRuby is not used at all. Only
+ * grok filters are supported by the native engine, see {@link GrokFilter}.
+ */
 public class GrokIngestMapper extends AbstractIngestMapper<LongWritable, Text> {
   private transient static Logger log = LoggerFactory.getLogger(GrokIngestMapper.class);
 
   public static final String GROK_URI = "grok.uri";
   public static final String GROK_CONFIG_PATH = "grok.config.path";
   public static final String ADDITIONAL_PATTERNS = "grok.additional.patterns";
+  public static final String GROK_ENGINE = "grok.engine";
+
+  public static final String LOGSTASH_GROK_ENGINE = "logstash";
+  public static final String NATIVE_GROK_ENGINE = "native";
 
   public static final String LOG_RUBY_PARAM = "log";
   public static final String CONFIG_STRING_RUBY_PARAM = "config_string_param";
@@ -46,6 +65,18 @@ public class GrokIngestMapper extends AbstractIngestMapper<LongWritable, Text> {
 
   private Object filters;
 
+  private DocumentIdMode idMode;
+  private InputSplit lastSplit;
+  private String lastSplitPath;
+
+  // Set instead of the script engine when the native engine is used
+  private List<GrokFilter> nativeFilters;
+
+  // Task-lifetime script engine, shared by the loader and every matcher invocation
+  private ScriptEngineManager scriptManager;
+  private ScriptEngine scriptEngine;
+  private CompiledScript matcherScript;
+
   private final AbstractJobFixture fixture = new AbstractJobFixture() {
     @Override
     public void init(JobConf conf) throws IOException {
@@ -60,12 +91,11 @@ public class GrokIngestMapper extends AbstractIngestMapper<LongWritable, Text> {
 
     String additionalPatternsPaths = conf.get(ADDITIONAL_PATTERNS);
 
-    StringBuilder additionalPatternsParam = new StringBuilder();
+    List<String> additionalPatterns = new ArrayList<String>();
     if (additionalPatternsPaths != null) {
       String[] paths = additionalPatternsPaths.split(";");
       for (String currentPath : paths) {
-        String content = DistributedCacheHandler.getFileFromCache(conf, currentPath);
-        additionalPatternsParam.append(content);
+        additionalPatterns.add(DistributedCacheHandler.getFileFromCache(conf, currentPath));
       }
     }
 
@@ -74,6 +104,24 @@ public class GrokIngestMapper extends AbstractIngestMapper<LongWritable, Text> {
           conf.get(GROK_URI));
     }
 
+    idMode = DocumentIdMode.fromConfiguration(conf);
+    if (isNativeEngine(conf)) {
+      try {
+        nativeFilters = GrokFilter.fromConfiguration(configurationString, additionalPatterns);
+      } catch (IllegalArgumentException e) {
+        throw new RuntimeException("Unable to compile the grok configuration: " + e.getMessage(), e);
+      }
+    } else {
+      configureLogstashEngine(configurationString, additionalPatterns);
+    }
+  }
+
+  private void configureLogstashEngine(String configurationString, List<String> additionalPatterns) {
+    StringBuilder additionalPatternsParam = new StringBuilder();
+    for (String content : additionalPatterns) {
+      additionalPatternsParam.append(content);
+    }
+
     Map<String, Object> params = new HashMap<String, Object>();
     params.put(CONFIG_STRING_RUBY_PARAM, configurationString);
     params.put(ADDITIONAL_PATTERNS_RUBY_PARAM, additionalPatternsParam.toString().trim());
@@ -81,7 +129,10 @@ public class GrokIngestMapper extends AbstractIngestMapper<LongWritable, Text> {
     List<String> toRemove = new ArrayList<String>();
     toRemove.add(CONFIG_STRING_RUBY_PARAM);
     toRemove.add(ADDITIONAL_PATTERNS_RUBY_PARAM);
-    Object response = executeScript(LOADER_RUBY_CLASS, params, toRemove);
+
+    scriptManager = new ScriptEngineManager();
+    scriptEngine = createEngine(scriptManager);
+    Object response = evalScript(scriptManager, scriptEngine, LOADER_RUBY_CLASS, params, toRemove);
 
     if (response != null) {
       filters = response;
@@ -89,6 +140,21 @@ public class GrokIngestMapper extends AbstractIngestMapper<LongWritable, Text> {
       throw new RuntimeException("Filters are null");
     }
 
+    // The filters never change for the life of the task, only the log line does
+    scriptEngine.getContext().setAttribute(FILTERS_ARRAY_RUBY_PARAM, filters, ScriptContext.ENGINE_SCOPE);
+    scriptManager.put(FILTERS_ARRAY_RUBY_PARAM, filters);
+    matcherScript = compileScript(scriptEngine, MATCHER_RUBY_CLASS);
+  }
+
+  private static boolean isNativeEngine(JobConf conf) {
+    String engine = conf.get(GROK_ENGINE, LOGSTASH_GROK_ENGINE);
+    if (NATIVE_GROK_ENGINE.equalsIgnoreCase(engine)) {
+      return true;
+    } else if (LOGSTASH_GROK_ENGINE.equalsIgnoreCase(engine)) {
+      return false;
+    }
+    throw new RuntimeException("Unknown " + GROK_ENGINE + ": " + engine + ", expected " + LOGSTASH_GROK_ENGINE
+        + " or " + NATIVE_GROK_ENGINE);
   }
 
   @Override
@@ -96,39 +162,42 @@ public class GrokIngestMapper extends AbstractIngestMapper<LongWritable, Text> {
     return fixture;
   }
 
+  /**
+   * The JRuby script engines of a JVM share one runtime and its variables, only the native engine
+   * can run on several threads
+   */
+  @Override
+  public boolean supportsParallelMap() {
+    return nativeFilters != null;
+  }
+
   @Override
   protected LWDocument[] toDocuments(LongWritable key, Text value, Reporter reporter,
                                      Configuration conf) throws IOException {
 
-    Map<String, Object> params = new HashMap<String, Object>();
-    params.put(LOG_RUBY_PARAM, value.toString());
-    params.put(FILTERS_ARRAY_RUBY_PARAM, filters);
+    if (nativeFilters != null) {
+      String line = value.toString();
+      LWDocument document = createDocument();
+      document.addField(GrokFilter.MESSAGE_FIELD, line);
+      for (GrokFilter filter : nativeFilters) {
+        filter.apply(line, document);
+      }
+      addSourceFields(document, key, value, reporter);
+      return new LWDocument[] {document};
+    }
 
-    List<String> toRemoveList = new ArrayList<String>();
-    toRemoveList.add(LOG_RUBY_PARAM);
-    toRemoveList.add(FILTERS_ARRAY_RUBY_PARAM);
-    Object response = executeScript(MATCHER_RUBY_CLASS, params, toRemoveList);
+    Object response = match(value.toString());
 
     try {
       RubyHash hash = (RubyHash) response;
       if (response != null) {
-        Set<String> keys = hash.keySet();
         LWDocument document = createDocument();
-        for (String currentKey : keys) {
-          document.addField(currentKey, hash.get(currentKey));
+        // one pass over the entries, each converted to Java once
+        for (Object entry : hash.entrySet()) {
+          Map.Entry<?, ?> field = (Map.Entry<?, ?>) entry;
+          document.addField(String.valueOf(field.getKey()), field.getValue());
         }
-
-        // Adding the file where this log was taken
-        FileSplit fileSplit = (FileSplit) reporter.getInputSplit();
-        String originalLogFilePath = fileSplit.getPath().toUri().getPath();
-        document.addField(PATH_FIELD_NAME, originalLogFilePath);
-
-        // Adding offset value
-        document.addField(BYTE_OFFSET_FIELD_NAME, key.toString());
-
-        // Set ID
-        document.setId(originalLogFilePath + "-" + key.toString() + "-" + System.currentTimeMillis());
-
+        addSourceFields(document, key, value, reporter);
         return new LWDocument[] {document};
       } else {
         return null;
@@ -139,12 +208,61 @@ public class GrokIngestMapper extends AbstractIngestMapper<LongWritable, Text> {
     }
   }
 
+  private void addSourceFields(LWDocument document, LongWritable key, Text value, Reporter reporter)
+      throws IOException {
+    // Adding the file where this log was taken
+    String originalLogFilePath = splitPath(reporter);
+    document.addField(PATH_FIELD_NAME, originalLogFilePath);
+
+    // Adding offset value
+    document.addField(BYTE_OFFSET_FIELD_NAME, key.toString());
+
+    // Set ID
+    document.setId(idMode.createId(originalLogFilePath, key, value));
+  }
+
+  /**
+   * @return the path of the file of the current split, computed once per split
+   */
+  private String splitPath(Reporter reporter) throws IOException {
+    InputSplit split = reporter.getInputSplit();
+    if (split != lastSplit) {
+      lastSplitPath = ((FileSplit) split).getPath().toUri().getPath();
+      lastSplit = split;
+    }
+    return lastSplitPath;
+  }
+
+  /**
+   * Run the compiled matcher against a single line
+   */
+  private Object match(String line) {
+    scriptEngine.getContext().setAttribute(LOG_RUBY_PARAM, line, ScriptContext.ENGINE_SCOPE);
+    scriptManager.put(LOG_RUBY_PARAM, line);
+    try {
+      return matcherScript.eval();
+    } catch (ScriptException e) {
+      log.error("Error executing script: " + e.getMessage(), e);
+      throw new RuntimeException("Error executing ruby script", e);
+    }
+  }
+
   public static Object executeScript(String resourcePath, Map<String, Object> params,
                                      List<String> attributesToRemove) {
     ScriptEngineManager manager = new ScriptEngineManager();
+    return evalScript(manager, createEngine(manager), resourcePath, params, attributesToRemove);
+  }
+
+  private static ScriptEngine createEngine(ScriptEngineManager manager) {
     ScriptEngine engine = manager.getEngineByName("ruby");
-    InputStream resource = GrokIngestMapper.class.getClassLoader().getResourceAsStream(resourcePath);
+    if (engine == null) {
+      throw new RuntimeException("Script engine can not be created");
+    }
+    return engine;
+  }
 
+  private static Object evalScript(ScriptEngineManager manager, ScriptEngine engine, String resourcePath,
+                                   Map<String, Object> params, List<String> attributesToRemove) {
     for (String toRemove : attributesToRemove) {
       engine.getContext().setAttribute(toRemove, params.get(toRemove),
           ScriptContext.ENGINE_SCOPE);// necessary limit the scope to just engine
@@ -154,15 +272,7 @@ public class GrokIngestMapper extends AbstractIngestMapper<LongWritable, Text> {
       manager.put(entry.getKey(), entry.getValue());
     }
 
-    if (resource == null) {
-      throw new RuntimeException("Resource not found " + resourcePath);
-    }
-    if (engine == null) {
-      throw new RuntimeException("Script engine can not be created");
-    }
-    InputStreamReader is = new InputStreamReader(resource);
-
-    try {
+    try (Reader is = openScript(resourcePath)) {
       Object response = engine.eval(is);
       return response;
     } catch (Exception e) {
@@ -171,6 +281,26 @@ public class GrokIngestMapper extends AbstractIngestMapper<LongWritable, Text> {
     }
   }
 
+  private static CompiledScript compileScript(ScriptEngine engine, String resourcePath) {
+    if (!(engine instanceof Compilable)) {
+      throw new RuntimeException("Script engine can not compile " + resourcePath);
+    }
+    try (Reader is = openScript(resourcePath)) {
+      return ((Compilable) engine).compile(is);
+    } catch (Exception e) {
+      log.error("Error compiling script: " + e.getMessage(), e);
+      throw new RuntimeException("Error compiling ruby script " + resourcePath, e);
+    }
+  }
+
+  private static Reader openScript(String resourcePath) {
+    InputStream resource = GrokIngestMapper.class.getClassLoader().getResourceAsStream(resourcePath);
+    if (resource == null) {
+      throw new RuntimeException("Resource not found " + resourcePath);
+    }
+    return new InputStreamReader(resource);
+  }
+
   private static void fillDistributeCache(JobConf conf) throws RuntimeException {
     String grokURI = conf.get(GROK_URI, null);
     if (grokURI == null) {
@@ -185,7 +315,23 @@ public class GrokIngestMapper extends AbstractIngestMapper<LongWritable, Text> {
     }
     // To find patterns_dir
     String configuration = GrokHelper.readConfiguration(grokURI, conf);
-    handlePatternDir(conf, configuration);
+    if (isNativeEngine(conf)) {
+      List<String> patternDirs = GrokFilter.getPatternsDirs(configuration);
+      for (String patternDir : patternDirs) {
+        if (!new File(patternDir).exists()) {
+          throw new RuntimeException("Grok patterns_dir " + patternDir + " of " + grokURI + " not found");
+        }
+      }
+      try {
+        GrokHelper.addPatternDirsToDC(patternDirs, conf);
+      } catch (Exception e) {
+        // every task would fail to compile the patterns of the missing directory
+        log.error("Error caching grok additional patterns: " + e.getMessage(), e);
+        throw new RuntimeException("Unable to cache the grok patterns_dir of " + grokURI, e);
+      }
+    } else {
+      handlePatternDir(conf, configuration);
+    }
   }
 
   private static void handlePatternDir(JobConf conf, String configuration) {
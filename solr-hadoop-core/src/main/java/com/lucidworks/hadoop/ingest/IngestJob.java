@@ -172,6 +172,8 @@ public class IngestJob extends AbstractJob {
         return 1;
       }
       conf.setReducerClass(reducerClazz);
+    } else if (conf.get(IngestReducer.REDUCE_STAGES) != null) {
+      log.warn("{} is ignored without reducers, see the {} option", IngestReducer.REDUCE_STAGES, NUM_REDUCERS_OPTION);
     }
 
     String outputFormatName = getOption(OUTPUT_FORMAT);
@@ -202,6 +204,19 @@ public class IngestJob extends AbstractJob {
       reducer.getFixture().init(conf);
     }
 
+    if (conf.getInt(ParallelIngestMapRunner.MAP_THREADS, 1) > 1) {
+      conf.setMapRunnerClass(ParallelIngestMapRunner.class);
+    }
+
+    if (conf.getBoolean(ShardPartitioner.SHARD_PARTITIONING, false)) {
+      if (numReducers == 0) {
+        log.warn("{} is ignored without reducers, see the {} option", ShardPartitioner.SHARD_PARTITIONING,
+            NUM_REDUCERS_OPTION);
+      } else if (ShardPartitioner.setShardRanges(conf)) {
+        conf.setPartitionerClass(ShardPartitioner.class);
+      }
+    }
+
     boolean debugAll = conf.getBoolean("lww.debug.all", false);
     if (debugAll) {
       conf.set("yarn.app.mapreduce.am.log.level", "DEBUG");
@@ -2,20 +2,36 @@ package com.lucidworks.hadoop.ingest;
 
 import com.lucidworks.hadoop.io.LWDocumentWritable;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.OutputCollector;
 import org.apache.hadoop.mapred.Reducer;
 import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.util.ReflectionUtils;
 
 /**
- *
- *
+ * Passes the documents on to the OutputFormat, through the {@link ReduceStage}s listed in
+ * {@link #REDUCE_STAGES}, if any. The mappers key the documents by id, so the stages get all the
+ * documents sharing an id at once, see {@link DeduplicatingReduceStage}.
+ * <p/>
+ * Without stages the documents are streamed; with stages the documents of a key are copied and held
+ * in memory, since Hadoop reuses the values it iterates over.
  **/
 public class IngestReducer extends BaseHadoopIngest
     implements Reducer<Text, LWDocumentWritable, Text, LWDocumentWritable> {
 
+  /**
+   * Comma separated class names of the {@link ReduceStage}s to run, in order
+   */
+  public static final String REDUCE_STAGES = "lww.reduce.stages";
+
+  public static final String COUNTER_GROUP = "IngestReducer";
+  public static final String DUPLICATES_DROPPED = "DuplicatesDropped";
+
   private AbstractJobFixture fixture = new AbstractJobFixture() {
     @Override
     public void init(JobConf conf) throws IOException {
@@ -23,18 +39,51 @@ public class IngestReducer extends BaseHadoopIngest
     }
   };
 
+  private ReduceStage[] stages = new ReduceStage[0];
+  private final List<LWDocumentWritable> docs = new ArrayList<LWDocumentWritable>();
+
   @Override
   public AbstractJobFixture getFixture() {
     return fixture;
   }
 
+  @Override
+  public void configure(JobConf conf) {
+    super.configure(conf);
+    Class<?>[] classes = conf.getClasses(REDUCE_STAGES);
+    stages = new ReduceStage[classes.length];
+    for (int i = 0; i < classes.length; i++) {
+      if (!ReduceStage.class.isAssignableFrom(classes[i])) {
+        throw new RuntimeException(
+            "Malformed " + REDUCE_STAGES + " property: " + classes[i].getName() + " is not a "
+                + ReduceStage.class.getSimpleName());
+      }
+      stages[i] = (ReduceStage) ReflectionUtils.newInstance(classes[i], conf);
+      stages[i].configure(conf);
+    }
+  }
+
   @Override
   public void reduce(Text key, Iterator<LWDocumentWritable> values,
       OutputCollector<Text, LWDocumentWritable> output, Reporter reporter) throws IOException {
+    if (stages.length == 0) {
+      while (values.hasNext()) {
+        output.collect(key, values.next());
+      }
+      return;
+    }
+    docs.clear();
     while (values.hasNext()) {
-      //TODO: LWSHADOOP-32:  Hook in Reduce side stages
-      output.collect(key, values.next());
+      docs.add(WritableUtils.clone(values.next(), conf));
+    }
+    List<LWDocumentWritable> processed = docs;
+    for (ReduceStage stage : stages) {
+      processed = stage.process(key, processed, reporter);
+    }
+    for (LWDocumentWritable doc : processed) {
+      output.collect(key, doc);
     }
+    docs.clear();
   }
 
 }
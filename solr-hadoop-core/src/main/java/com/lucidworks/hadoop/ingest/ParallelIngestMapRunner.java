@@ -0,0 +1,192 @@
+package com.lucidworks.hadoop.ingest;
+
+import com.lucidworks.hadoop.io.LWDocumentWritable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.MapRunnable;
+import org.apache.hadoop.mapred.Mapper;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Maps the records of a task on {@link #MAP_THREADS} threads, for mappers whose conversion is CPU
+ * bound (Tika, XSLt, grok). Every thread has its own instance of the mapper, so mappers don't have
+ * to be thread safe, only to return true from {@link AbstractIngestMapper#supportsParallelMap()}.
+ * <p/>
+ * The documents of each record are buffered, and passed to the OutputCollector by the task thread
+ * in the order of the records. The mapper instances don't reuse their output writables, see
+ * {@link AbstractIngestMapper#REUSE_WRITABLES}.
+ * <p/>
+ * {@link IngestJob} uses this runner when {@link #MAP_THREADS} is more than 1.
+ */
+public class ParallelIngestMapRunner<K extends Writable, V extends Writable>
+  implements MapRunnable<K, V, Text, LWDocumentWritable> {
+
+  private static final Logger log = LoggerFactory.getLogger(ParallelIngestMapRunner.class);
+
+  public static final String MAP_THREADS = "lww.map.threads";
+
+  private JobConf job;
+  private int threads;
+
+  @Override
+  public void configure(JobConf job) {
+    this.job = job;
+    this.threads = Math.max(1, job.getInt(MAP_THREADS, 1));
+  }
+
+  @Override
+  public void run(
+    RecordReader<K, V> input,
+    OutputCollector<Text, LWDocumentWritable> output,
+    Reporter reporter) throws IOException {
+    List<Mapper<K, V, Text, LWDocumentWritable>> mappers = new ArrayList<>();
+    try {
+      // a mapper mapping on the task thread keeps the job configuration
+      Mapper<K, V, Text, LWDocumentWritable> first = createMapper(job);
+      mappers.add(first);
+      if (threads > 1 && first instanceof AbstractIngestMapper
+        && !((AbstractIngestMapper) first).supportsParallelMap()) {
+        log.warn("{} doesn't support " + MAP_THREADS + ", mapping on one thread", first.getClass().getName());
+        threads = 1;
+      }
+      if (threads == 1) {
+        K key = input.createKey();
+        V value = input.createValue();
+        while (input.next(key, value)) {
+          first.map(key, value, output, reporter);
+        }
+        return;
+      }
+      mappers.remove(first);
+      first.close();
+      JobConf mapperConf = new JobConf(job);
+      mapperConf.setBoolean(AbstractIngestMapper.REUSE_WRITABLES, false);
+      for (int i = 0; i < threads; i++) {
+        mappers.add(createMapper(mapperConf));
+      }
+      runParallel(input, output, reporter, mappers);
+    } finally {
+      for (Mapper<K, V, Text, LWDocumentWritable> mapper : mappers) {
+        mapper.close();
+      }
+    }
+  }
+
+  private void runParallel(
+    RecordReader<K, V> input,
+    OutputCollector<Text, LWDocumentWritable> output,
+    final Reporter reporter,
+    List<Mapper<K, V, Text, LWDocumentWritable>> mappers) throws IOException {
+    final BlockingQueue<Mapper<K, V, Text, LWDocumentWritable>> idle = new ArrayBlockingQueue<>(mappers.size());
+    idle.addAll(mappers);
+    ExecutorService pool = Executors.newFixedThreadPool(threads, new MapThreadFactory());
+    // results of the records being mapped, in the order of the records
+    Deque<Future<BufferedOutput>> pending = new ArrayDeque<>();
+    int maxPending = 2 * threads;
+    try {
+      while (true) {
+        // the reader may reuse its key and value
+        final K key = input.createKey();
+        final V value = input.createValue();
+        if (!input.next(key, value)) {
+          break;
+        }
+        pending.add(pool.submit(new Callable<BufferedOutput>() {
+          @Override
+          public BufferedOutput call() throws Exception {
+            Mapper<K, V, Text, LWDocumentWritable> mapper = idle.take();
+            try {
+              BufferedOutput buffer = new BufferedOutput();
+              mapper.map(key, value, buffer, reporter);
+              return buffer;
+            } finally {
+              idle.put(mapper);
+            }
+          }
+        }));
+        if (pending.size() >= maxPending) {
+          collect(pending.poll(), output);
+        }
+      }
+      while (!pending.isEmpty()) {
+        collect(pending.poll(), output);
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  private static void collect(Future<BufferedOutput> result, OutputCollector<Text, LWDocumentWritable> output)
+    throws IOException {
+    BufferedOutput buffer;
+    try {
+      buffer = result.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while mapping", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IOException(cause);
+    }
+    for (int i = 0; i < buffer.keys.size(); i++) {
+      output.collect(buffer.keys.get(i), buffer.values.get(i));
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private Mapper<K, V, Text, LWDocumentWritable> createMapper(JobConf mapperConf) {
+    return ReflectionUtils.newInstance(job.getMapperClass(), mapperConf);
+  }
+
+  /**
+   * The documents of one record
+   */
+  private static class BufferedOutput implements OutputCollector<Text, LWDocumentWritable> {
+    private final List<Text> keys = new ArrayList<>(1);
+    private final List<LWDocumentWritable> values = new ArrayList<>(1);
+
+    @Override
+    public void collect(Text key, LWDocumentWritable value) {
+      keys.add(key);
+      values.add(value);
+    }
+  }
+
+  private static class MapThreadFactory implements ThreadFactory {
+    private final AtomicInteger count = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "ingest-map-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
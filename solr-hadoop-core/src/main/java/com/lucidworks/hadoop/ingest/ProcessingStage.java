@@ -0,0 +1,224 @@
+package com.lucidworks.hadoop.ingest;
+
+import com.lucidworks.hadoop.LucidCounters;
+import com.lucidworks.hadoop.io.LWDocument;
+import com.lucidworks.hadoop.io.LWDocumentProvider;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.Reporter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs {@link LWDocumentProvider#processIfNeeded(LWDocument, JobConf)} (Tika extraction) on the
+ * documents of a mapper.
+ * <p/>
+ * With a {@link #TIMEOUT_MS} or a {@link #MAX_ALLOCATED_BYTES} budget, every document is processed
+ * on a worker thread watched by the mapper thread. A document going over its budget is skipped and
+ * counted as {@link LucidCounters#TIKA_EXTRACT_FAILED}: its worker is interrupted and replaced, in
+ * case the parser ignores the interruption. Without budgets the documents are processed on the
+ * mapper thread. Either way a document running out of memory is skipped and counted the same way.
+ * <p/>
+ * The budgets don't isolate the task from a parser ignoring interruptions: its abandoned thread
+ * keeps running and allocating, outside of any budget. Once more than
+ * {@link #MAX_ABANDONED_THREADS} abandoned threads are still running, the task fails rather than
+ * piling them up.
+ */
+public class ProcessingStage {
+  private static final Logger log = LoggerFactory.getLogger(ProcessingStage.class);
+
+  /**
+   * Maximum time to process a document, 0 for no limit
+   */
+  public static final String TIMEOUT_MS = "lww.processing.timeout.ms";
+
+  /**
+   * Maximum number of bytes allocated while processing a document, 0 for no limit. Only enforced
+   * on JVMs measuring the allocations of threads.
+   */
+  public static final String MAX_ALLOCATED_BYTES = "lww.processing.max.allocated.bytes";
+
+  /**
+   * Maximum number of abandoned processing threads still running before the task fails
+   */
+  public static final String MAX_ABANDONED_THREADS = "lww.processing.max.abandoned.threads";
+
+  public static final int DEFAULT_MAX_ABANDONED_THREADS = 2;
+
+  private static final long POLL_MS = 50;
+
+  private static final LWDocument[] SKIPPED = new LWDocument[0];
+
+  private final JobConf conf;
+  private final long timeoutMs;
+  private final long maxAllocatedBytes;
+  private final int maxAbandonedThreads;
+  private final com.sun.management.ThreadMXBean threads;
+
+  private ExecutorService worker;
+  private volatile Thread workerThread;
+  private int abandonedWorkers = 0;
+  private final List<Thread> runningAbandoned = new ArrayList<Thread>();
+
+  public ProcessingStage(JobConf conf) {
+    this.conf = conf;
+    this.timeoutMs = conf.getLong(TIMEOUT_MS, 0);
+    this.maxAbandonedThreads = conf.getInt(MAX_ABANDONED_THREADS, DEFAULT_MAX_ABANDONED_THREADS);
+    long maxAllocatedBytes = conf.getLong(MAX_ALLOCATED_BYTES, 0);
+    com.sun.management.ThreadMXBean threads = null;
+    if (maxAllocatedBytes > 0) {
+      java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+      if (bean instanceof com.sun.management.ThreadMXBean
+          && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+        threads = (com.sun.management.ThreadMXBean) bean;
+        threads.setThreadAllocatedMemoryEnabled(true);
+      } else {
+        log.warn("This JVM doesn't measure thread allocations, ignoring " + MAX_ALLOCATED_BYTES);
+        maxAllocatedBytes = 0;
+      }
+    }
+    this.maxAllocatedBytes = maxAllocatedBytes;
+    this.threads = threads;
+  }
+
+  /**
+   * @return the processed documents, none if the document was skipped
+   */
+  public LWDocument[] process(final LWDocument doc, Reporter reporter) throws IOException {
+    if (timeoutMs <= 0 && maxAllocatedBytes <= 0) {
+      try {
+        return processIfNeeded(doc);
+      } catch (OutOfMemoryError e) {
+        return skip(doc, "ran out of memory", e, reporter);
+      }
+    }
+
+    if (worker == null) {
+      worker = Executors.newSingleThreadExecutor(new WorkerThreadFactory());
+    }
+    Future<LWDocument[]> result = worker.submit(new Callable<LWDocument[]>() {
+      @Override
+      public LWDocument[] call() throws Exception {
+        return processIfNeeded(doc);
+      }
+    });
+    long start = System.currentTimeMillis();
+    // the worker thread is created by the submit
+    Thread thread = workerThread;
+    long startAllocated = maxAllocatedBytes > 0 ? Math.max(0, threads.getThreadAllocatedBytes(thread.getId())) : 0;
+    try {
+      while (true) {
+        try {
+          return result.get(POLL_MS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+          // still processing, check the budgets
+        }
+        reporter.progress();
+        if (timeoutMs > 0 && System.currentTimeMillis() - start > timeoutMs) {
+          abandonWorker(result, thread);
+          return skip(doc, "took more than " + timeoutMs + " ms", null, reporter);
+        }
+        if (maxAllocatedBytes > 0) {
+          long allocated = threads.getThreadAllocatedBytes(thread.getId());
+          if (allocated - startAllocated > maxAllocatedBytes) {
+            abandonWorker(result, thread);
+            return skip(doc, "allocated more than " + maxAllocatedBytes + " bytes", null, reporter);
+          }
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      result.cancel(true);
+      close();
+      throw new IOException("Interrupted while processing " + doc.getId(), e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof OutOfMemoryError) {
+        return skip(doc, "ran out of memory", cause, reporter);
+      } else if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IOException(cause);
+    }
+  }
+
+  /**
+   * Process the document, {@link LWDocumentProvider#processIfNeeded(LWDocument, JobConf)} by default
+   */
+  protected LWDocument[] processIfNeeded(LWDocument doc) throws IOException {
+    return LWDocumentProvider.processIfNeeded(doc, conf);
+  }
+
+  public void close() {
+    if (worker != null) {
+      worker.shutdownNow();
+      worker = null;
+    }
+  }
+
+  private LWDocument[] skip(LWDocument doc, String reason, Throwable cause, Reporter reporter) {
+    log.error("Skipping document " + doc.getId() + ", processing " + reason, cause);
+    reporter.incrCounter(LucidCounters.TIKA_EXTRACT_FAILED, 1);
+    return SKIPPED;
+  }
+
+  /**
+   * Interrupt the worker and process the next documents on a new one: a parser stuck in a loop may
+   * never notice the interruption.
+   *
+   * @throws IOException if too many abandoned threads are still running
+   */
+  private void abandonWorker(Future<?> result, Thread thread) throws IOException {
+    result.cancel(true);
+    worker.shutdownNow();
+    worker = null;
+    workerThread = null;
+    abandonedWorkers++;
+    try {
+      // give a parser noticing the interruption the time to stop
+      thread.join(POLL_MS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (thread.isAlive()) {
+      runningAbandoned.add(thread);
+    }
+    for (Iterator<Thread> it = runningAbandoned.iterator(); it.hasNext(); ) {
+      if (!it.next().isAlive()) {
+        it.remove();
+      }
+    }
+    log.warn("Abandoned {} processing threads, {} of them still running", abandonedWorkers, runningAbandoned.size());
+    if (runningAbandoned.size() > maxAbandonedThreads) {
+      throw new IOException(runningAbandoned.size() + " abandoned processing threads ignore their interruption"
+          + " and are still running, more than " + MAX_ABANDONED_THREADS + "=" + maxAbandonedThreads
+          + ": failing the task");
+    }
+  }
+
+  private class WorkerThreadFactory implements ThreadFactory {
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "ingest-processing-" + abandonedWorkers);
+      thread.setDaemon(true);
+      workerThread = thread;
+      return thread;
+    }
+  }
+}
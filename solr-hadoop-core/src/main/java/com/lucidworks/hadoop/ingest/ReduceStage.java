@@ -0,0 +1,26 @@
+package com.lucidworks.hadoop.ingest;
+
+import com.lucidworks.hadoop.io.LWDocumentWritable;
+import java.io.IOException;
+import java.util.List;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.Reporter;
+
+/**
+ * A step of the reduce side processing of {@link IngestReducer}, set with
+ * {@link IngestReducer#REDUCE_STAGES}. Stages need a public no-argument constructor.
+ */
+public interface ReduceStage {
+
+  void configure(JobConf conf);
+
+  /**
+   * @param key  the document id
+   * @param docs the documents with this id, in the order the reducer received them, or as returned
+   *             by the previous stage. The list may be modified.
+   * @return the documents to pass on to the next stage, then to the OutputFormat
+   */
+  List<LWDocumentWritable> process(Text key, List<LWDocumentWritable> docs, Reporter reporter)
+      throws IOException;
+}
@@ -1,17 +1,29 @@
 package com.lucidworks.hadoop.ingest;
 
+import com.lucidworks.hadoop.ingest.util.AsciiCharSequence;
 import com.lucidworks.hadoop.io.LWDocument;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.InputSplit;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.Reporter;
 
+/**
+ * Maps each record to a document whose fields are the groups of a regex.
+ * <p/>
+ * More regexes can be set with {@link #REGEX}.1, {@link #GROUPS_TO_FIELDS}.1, {@link #REGEX}.2,
+ * ... for inputs mixing several formats: the first regex matching a record sets its fields. The
+ * regexes are only tried on the records containing their leading literal text, if they have one.
+ */
 public class RegexIngestMapper extends AbstractIngestMapper<Writable, Writable> {
 
   public static final String REGEX = RegexIngestMapper.class.getName() + ".regex";
@@ -36,69 +48,142 @@ public class RegexIngestMapper extends AbstractIngestMapper<Writable, Writable>
     return fixture;
   }
 
+  /**
+   * The regex and group mapping of {@link #REGEX}, or while {@link #processMatch(LWDocument, Matcher)}
+   * runs, of the regex that matched
+   */
   protected Pattern regex;
   protected Map<Integer, String> groupToFields;
+  protected RegexPattern[] patterns;
   protected boolean match;
+  protected DocumentIdMode idMode;
+
+  private final AsciiCharSequence asciiValue = new AsciiCharSequence();
+  private InputSplit lastSplit;
+  private String lastSplitPath;
 
   @Override
   public void configure(JobConf conf) {
     super.configure(conf);
-    String regexStr = conf.get(REGEX);
+    match = conf.getBoolean(REGEX_MATCH, false);
+    List<RegexPattern> patterns = new ArrayList<RegexPattern>();
+    patterns.add(createPattern(conf, REGEX, GROUPS_TO_FIELDS));
+    for (int i = 1; conf.get(REGEX + "." + i) != null; i++) {
+      patterns.add(createPattern(conf, REGEX + "." + i, GROUPS_TO_FIELDS + "." + i));
+    }
+    this.patterns = patterns.toArray(new RegexPattern[patterns.size()]);
+    regex = this.patterns[0].regex;
+    groupToFields = this.patterns[0].groupToFields;
+    idMode = DocumentIdMode.fromConfiguration(conf);
+  }
+
+  private RegexPattern createPattern(JobConf conf, String regexKey, String groupsToFieldsKey) {
+    Pattern regex;
+    String regexStr = conf.get(regexKey);
     if (regexStr != null && regexStr.isEmpty() == false) {
       regex = Pattern.compile(regexStr);
     } else {
-      throw new RuntimeException(REGEX + " property must not be null or empty");
+      throw new RuntimeException(regexKey + " property must not be null or empty");
     }
-    String groupToFieldsStr = conf.get(GROUPS_TO_FIELDS);
+    Map<Integer, String> groupToFields;
+    String groupToFieldsStr = conf.get(groupsToFieldsKey);
     if (groupToFieldsStr != null && groupToFieldsStr.isEmpty() == false) {
       //format is: groupNumber=fieldName,groupNumber=fieldName as in: 1=id,2=title,3=dog
       groupToFields = new HashMap<Integer, String>();
+      int groupCount = regex.matcher("").groupCount();
       String[] splits = GROUP_SEPARATOR.split(groupToFieldsStr);
       for (String split : splits) {
         String[] groupFieldSplit = GROUP_FIELD_SEPARATOR.split(split);
         if (groupFieldSplit != null && groupFieldSplit.length == 2) {
-          groupToFields.put(Integer.parseInt(groupFieldSplit[0]), groupFieldSplit[1]);
+          int group = Integer.parseInt(groupFieldSplit[0]);
+          if (group < 0) {
+            throw new RuntimeException(
+                "Malformed " + groupsToFieldsKey + " property: " + groupToFieldsStr + ".  Negative group " + group);
+          } else if (group <= groupCount) {
+            groupToFields.put(group, groupFieldSplit[1]);
+          } else {
+            log.warn("The regex " + regexStr + " has no group " + group + ", field " + groupFieldSplit[1]
+                + " will never be set");
+          }
         } else {
           throw new RuntimeException(
-              "Malformed " + GROUPS_TO_FIELDS + " property: " + groupToFieldsStr
+              "Malformed " + groupsToFieldsKey + " property: " + groupToFieldsStr
                   + ".  Format is: groupNumber=fieldName,groupNumber=fieldName as in: 1=id,2=title,3=dog");
         }
       }
     } else {
-      throw new RuntimeException(GROUPS_TO_FIELDS + " property must not be null or empty");
+      throw new RuntimeException(groupsToFieldsKey + " property must not be null or empty");
     }
-    match = conf.getBoolean(REGEX_MATCH, false);
+    return new RegexPattern(regex, groupToFields, match);
   }
 
   @Override
   public LWDocument[] toDocuments(Writable key, Writable value, Reporter reporter,
       Configuration conf) throws IOException {
     if (key != null && value != null) {
-      LWDocument doc = createDocument(key.toString() + "-" + System.currentTimeMillis(), null);
-      Matcher matcher = regex.matcher(value.toString());
-      if (matcher != null) {
+      // Adding the file path where this record was taken
+      String originalLogFilePath = splitPath(reporter);
+      LWDocument doc = createDocument(idMode.createId(originalLogFilePath, key, value), null);
+      CharSequence chars = chars(value);
+      // the first pattern matching the value sets the fields
+      for (RegexPattern pattern : patterns) {
+        if (!pattern.mayMatch(chars)) {
+          continue;
+        }
+        Matcher matcher = pattern.matcher.reset(chars);
+        regex = pattern.regex;
+        groupToFields = pattern.groupToFields;
         if (match) {
           if (matcher.matches()) {
             processMatch(doc, matcher);
+            break;
           }
         } else {//
+          boolean found = false;
           while (matcher.find()) {
+            found = true;
             processMatch(doc, matcher);
             reporter.progress();//do we really even need this?
           }
+          if (found) {
+            break;
+          }
         }
       }
-      // Adding the file path where this record was taken
-      FileSplit fileSplit = (FileSplit) reporter.getInputSplit();
-      String originalLogFilePath = fileSplit.getPath().toUri().getPath();
+      regex = patterns[0].regex;
+      groupToFields = patterns[0].groupToFields;
       doc.addField(FIELD_PATH, originalLogFilePath);
-      String docId = originalLogFilePath + "-" + doc.getId();
-      doc.setId(docId);
       return new LWDocument[] {doc};
     }
     return null;
   }
 
+  /**
+   * @return the value to match: an ASCII Text is matched in place, without decoding it
+   */
+  private CharSequence chars(Writable value) {
+    if (value instanceof Text) {
+      Text text = (Text) value;
+      if (AsciiCharSequence.isAscii(text.getBytes(), 0, text.getLength())) {
+        asciiValue.set(text.getBytes(), 0, text.getLength());
+        return asciiValue;
+      }
+    }
+    return value.toString();
+  }
+
+  /**
+   * @return the path of the file of the current split
+   */
+  private String splitPath(Reporter reporter) throws IOException {
+    InputSplit split = reporter.getInputSplit();
+    if (split != lastSplit) {
+      lastSplitPath = ((FileSplit) split).getPath().toUri().getPath();
+      lastSplit = split;
+    }
+    return lastSplitPath;
+  }
+
   protected void processMatch(LWDocument doc, Matcher matcher) {
     int groupCount = matcher.groupCount();
     if (groupCount >= 0) {
@@ -111,4 +196,105 @@ public class RegexIngestMapper extends AbstractIngestMapper<Writable, Writable>
     }
   }
 
+  /**
+   * A regex, its group mapping and its prefilter: the literal text every match starts with, at
+   * the start of the value if the regex is anchored
+   */
+  protected static class RegexPattern {
+    final Pattern regex;
+    // field name by group number
+    final Map<Integer, String> groupToFields;
+    // reset onto every value
+    final Matcher matcher;
+    final String literalPrefix;
+    final boolean anchored;
+
+    RegexPattern(Pattern regex, Map<Integer, String> groupToFields, boolean match) {
+      this.regex = regex;
+      this.groupToFields = groupToFields;
+      this.matcher = regex.matcher("");
+      String expression = regex.pattern();
+      this.anchored = match || expression.startsWith("^") || expression.startsWith("\\A");
+      this.literalPrefix = regex.flags() == 0 ? literalPrefix(expression) : "";
+    }
+
+    /**
+     * @return false if the value can't match
+     */
+    boolean mayMatch(CharSequence value) {
+      if (literalPrefix.isEmpty()) {
+        return true;
+      }
+      return anchored ? startsWith(value, literalPrefix) : indexOf(value, literalPrefix) >= 0;
+    }
+
+    /**
+     * @return the literal text any match of the expression starts with, "" if unknown
+     */
+    static String literalPrefix(String expression) {
+      if (expression.indexOf('|') >= 0) {
+        // an alternative may start with anything
+        return "";
+      }
+      StringBuilder prefix = new StringBuilder();
+      int i = 0;
+      if (expression.startsWith("^")) {
+        i = 1;
+      } else if (expression.startsWith("\\A")) {
+        i = 2;
+      }
+      while (i < expression.length()) {
+        char c = expression.charAt(i);
+        int next;
+        if (c == '\\') {
+          if (i + 1 >= expression.length() || Character.isLetterOrDigit(expression.charAt(i + 1))) {
+            // a class, a back reference or an escape sequence
+            break;
+          }
+          c = expression.charAt(i + 1);
+          next = i + 2;
+        } else if (".[]{}()*+?^$".indexOf(c) >= 0) {
+          break;
+        } else {
+          next = i + 1;
+        }
+        if (next < expression.length() && "*?{".indexOf(expression.charAt(next)) >= 0) {
+          // the character is optional
+          break;
+        }
+        prefix.append(c);
+        i = next;
+      }
+      return prefix.toString();
+    }
+
+    private static boolean startsWith(CharSequence value, String prefix) {
+      if (value.length() < prefix.length()) {
+        return false;
+      }
+      for (int i = 0; i < prefix.length(); i++) {
+        if (value.charAt(i) != prefix.charAt(i)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private static int indexOf(CharSequence value, String literal) {
+      char first = literal.charAt(0);
+      int last = value.length() - literal.length();
+      for (int i = 0; i <= last; i++) {
+        if (value.charAt(i) == first) {
+          int j = 1;
+          while (j < literal.length() && value.charAt(i + j) == literal.charAt(j)) {
+            j++;
+          }
+          if (j == literal.length()) {
+            return i;
+          }
+        }
+      }
+      return -1;
+    }
+  }
 }
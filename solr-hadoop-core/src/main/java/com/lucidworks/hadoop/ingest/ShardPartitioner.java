@@ -0,0 +1,142 @@
+package com.lucidworks.hadoop.ingest;
+
+import com.lucidworks.hadoop.io.LWDocumentWritable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.Partitioner;
+import org.apache.solr.common.cloud.DocCollection;
+import org.apache.solr.common.cloud.DocRouter;
+import org.apache.solr.common.cloud.HashBasedRouter;
+import org.apache.solr.common.cloud.Slice;
+import org.apache.solr.common.cloud.ZkStateReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.lucidworks.hadoop.utils.ConfigurationKeys.COLLECTION;
+import static com.lucidworks.hadoop.utils.ConfigurationKeys.ZK_CONNECT;
+
+/**
+ * Sends the documents of a Solr shard to the same reducers, so every reducer writes to as few shards
+ * as possible, and its batches go to one shard leader instead of being split across all of them.
+ * The shard of a document is found the way Solr does, from the hash of its id (the key).
+ * <p/>
+ * With as many reducers as shards, each reducer gets one shard; with more, each shard is spread over
+ * {@code reducers / shards} reducers; with less, each reducer gets several whole shards.
+ * <p/>
+ * {@link IngestJob} sets this partitioner when {@link #SHARD_PARTITIONING} is true, after reading the
+ * router and the hash ranges of the collection from ZooKeeper with {@link #setShardRanges(JobConf)}.
+ * Collections using the implicit router or a router.field keep the default partitioner.
+ */
+public class ShardPartitioner implements Partitioner<Text, LWDocumentWritable> {
+  private static final Logger log = LoggerFactory.getLogger(ShardPartitioner.class);
+
+  public static final String SHARD_PARTITIONING = "lww.shard.partitioning";
+  public static final String ROUTER = "lww.shard.router";
+  public static final String RANGES = "lww.shard.ranges";
+
+  private static final int ZK_TIMEOUT_MS = 30000;
+
+  private HashBasedRouter router;
+  private DocRouter.Range[] ranges;
+
+  @Override
+  public void configure(JobConf conf) {
+    String routerName = conf.get(ROUTER);
+    String[] ranges = conf.getTrimmedStrings(RANGES);
+    if (routerName == null || ranges.length == 0) {
+      throw new RuntimeException(ROUTER + " and " + RANGES + " properties must not be null or empty");
+    }
+    DocRouter router = DocRouter.getDocRouter(routerName);
+    if (!(router instanceof HashBasedRouter)) {
+      throw new RuntimeException("Malformed " + ROUTER + " property: " + routerName + " is not hash based");
+    }
+    this.router = (HashBasedRouter) router;
+    this.ranges = new DocRouter.Range[ranges.length];
+    for (int i = 0; i < ranges.length; i++) {
+      this.ranges[i] = router.fromString(ranges[i]);
+    }
+  }
+
+  @Override
+  public int getPartition(Text key, LWDocumentWritable value, int numPartitions) {
+    int hash = router.sliceHash(key.toString(), null, null, null);
+    int shard = shard(hash);
+    if (shard < 0) {
+      // not covered by the ranges read when the job started, a shard was split since
+      return (hash & Integer.MAX_VALUE) % numPartitions;
+    }
+    return partition(shard, hash, ranges.length, numPartitions);
+  }
+
+  private int shard(int hash) {
+    for (int i = 0; i < ranges.length; i++) {
+      if (ranges[i].includes(hash)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  static int partition(int shard, int hash, int numShards, int numPartitions) {
+    if (numPartitions <= numShards) {
+      return shard % numPartitions;
+    }
+    // the reducers past the last multiple of the number of shards get nothing
+    int reducersPerShard = numPartitions / numShards;
+    return shard * reducersPerShard + (hash & Integer.MAX_VALUE) % reducersPerShard;
+  }
+
+  /**
+   * Read the router and the active shard ranges of the {@link
+   * com.lucidworks.hadoop.utils.ConfigurationKeys#COLLECTION} into the configuration.
+   *
+   * @return false if the collection can't be partitioned by shard, or its state can't be read
+   */
+  public static boolean setShardRanges(JobConf conf) {
+    String zkHost = conf.get(ZK_CONNECT);
+    String collection = conf.get(COLLECTION);
+    if (zkHost == null || zkHost.isEmpty()) {
+      log.warn("{} needs a ZooKeeper connection, keeping the default partitioner", SHARD_PARTITIONING);
+      return false;
+    }
+    ZkStateReader reader = new ZkStateReader(zkHost, ZK_TIMEOUT_MS, ZK_TIMEOUT_MS);
+    try {
+      reader.createClusterStateWatchersAndUpdate();
+      DocCollection docCollection = reader.getClusterState().getCollectionOrNull(collection);
+      if (docCollection == null) {
+        log.warn("Collection {} not found, keeping the default partitioner", collection);
+        return false;
+      }
+      DocRouter router = docCollection.getRouter();
+      if (!(router instanceof HashBasedRouter) || router.getRouteField(docCollection) != null) {
+        log.warn("Collection {} isn't routed on the hash of the ids, keeping the default partitioner", collection);
+        return false;
+      }
+      Collection<Slice> slices = docCollection.getActiveSlices();
+      List<String> ranges = new ArrayList<String>(slices.size());
+      for (Slice slice : slices) {
+        if (slice.getRange() == null) {
+          log.warn("Shard {} of {} has no hash range, keeping the default partitioner", slice.getName(), collection);
+          return false;
+        }
+        ranges.add(slice.getRange().toString());
+      }
+      conf.set(ROUTER, docCollection.getRouter().getName());
+      conf.setStrings(RANGES, ranges.toArray(new String[ranges.size()]));
+      log.info("Partitioning the documents over the {} shards of {}", ranges.size(), collection);
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      log.error("Interrupted while reading the shards of " + collection, e);
+      return false;
+    } catch (Exception e) {
+      log.error("Unable to read the shards of " + collection + ", keeping the default partitioner", e);
+      return false;
+    } finally {
+      reader.close();
+    }
+  }
+}
@@ -6,11 +6,13 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import javax.xml.parsers.SAXParserFactory;
 import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamConstants;
@@ -30,9 +32,21 @@ import static com.lucidworks.hadoop.utils.ConfigurationKeys.COLLECTION;
 /**
  * Process SolrXML add commands from raw Text.  Ignores all non-add commands.
  * <p/>
+ * The documents are emitted as they are parsed, so a malformed record is indexed up to the error:
+ * the documents completed before it are kept, and the record is counted under {@link #PARSE_ERRORS}.
+ * It only counts as a conversion failure if no document was completed.
+ * <p/>
  * See http://wiki.apache.org/solr/UpdateXmlMessages
  */
 public class SolrXMLIngestMapper extends AbstractIngestMapper<Writable, Text> {
+  public static final String COUNTER_GROUP = "SolrXMLIngestMapper";
+  public static final String BOOSTS_IGNORED = "BoostsIgnored";
+  public static final String PARSE_ERRORS = "ParseErrors";
+
+  // the atomic update operations of Solr
+  private static final Set<String> UPDATE_OPERATIONS = new HashSet<String>(
+      Arrays.asList("set", "add", "add-distinct", "remove", "removeregex", "inc"));
+
   private final AbstractJobFixture fixture = new AbstractJobFixture() {
     @Override
     public void init(JobConf conf) throws IOException {
@@ -44,6 +58,7 @@ public class SolrXMLIngestMapper extends AbstractIngestMapper<Writable, Text> {
   };
 
   private SolrXMLLoader xmlLoader;
+  private final CountingConsumer counting = new CountingConsumer();
 
   // For test
   public SolrXMLLoader createXmlLoader(String collection, String idField) {
@@ -69,20 +84,51 @@ public class SolrXMLIngestMapper extends AbstractIngestMapper<Writable, Text> {
   @Override
   protected LWDocument[] toDocuments(Writable key, Text value, Reporter reporter,
       Configuration conf) throws IOException {
-    try {
-      Collection<LWDocument> documents = xmlLoader
-          .readDocs(new ByteArrayInputStream(value.getBytes(), 0, value.getLength()),
-              key.toString());
+    final List<LWDocument> documents = new ArrayList<LWDocument>();
+    toDocuments(key, value, reporter, conf, new DocumentConsumer() {
+      @Override
+      public void accept(LWDocument doc) {
+        documents.add(doc);
+      }
+    });
+    return documents.toArray(new LWDocument[documents.size()]);
+  }
 
-      return documents.toArray(new LWDocument[documents.size()]);
+  @Override
+  protected int toDocuments(Writable key, Text value, Reporter reporter, Configuration conf,
+      DocumentConsumer consumer) throws IOException {
+    counting.consumer = consumer;
+    counting.count = 0;
+    try {
+      return xmlLoader.readDocs(new ByteArrayInputStream(value.getBytes(), 0, value.getLength()),
+          key.toString(), counting);
     } catch (XMLStreamException e) {
-      // nocommit TODO: how to handle this exception? Throw or swallow?
-      log.error("Unable to parse SolrXML from " + key.toString(), e);
-      // TODO: How should we report this?
-      // reporter.getCounter(Counters.)
+      // the documents read before the error have been emitted already
+      log.error("Unable to parse SolrXML from " + key.toString() + " after " + counting.count
+          + " documents", e);
+      reporter.incrCounter(COUNTER_GROUP, PARSE_ERRORS, 1);
+      return counting.count;
+    } finally {
+      counting.consumer = null;
+      long ignoredBoosts = xmlLoader.takeIgnoredBoosts();
+      if (ignoredBoosts > 0) {
+        reporter.incrCounter(COUNTER_GROUP, BOOSTS_IGNORED, ignoredBoosts);
+      }
     }
-    return new LWDocument[0];
+  }
+
+  /**
+   * Counts the documents of a record as they are passed on
+   */
+  private static final class CountingConsumer implements DocumentConsumer {
+    private DocumentConsumer consumer;
+    private int count;
 
+    @Override
+    public void accept(LWDocument doc) throws IOException {
+      consumer.accept(doc);
+      count++;
+    }
   }
 
   /**
@@ -92,6 +138,10 @@ public class SolrXMLIngestMapper extends AbstractIngestMapper<Writable, Text> {
     XMLInputFactory inputFactory;
     SAXParserFactory saxFactory;
     private final String collection, idField;
+    // the text of the current field, reused across documents
+    private final StringBuilder text = new StringBuilder();
+    // boosts ignored since the last call to takeIgnoredBoosts
+    private long ignoredBoosts = 0;
 
     /**
      * @param idField
@@ -126,41 +176,105 @@ public class SolrXMLIngestMapper extends AbstractIngestMapper<Writable, Text> {
     /**
      * Closes the parser when it is done or on exception
      *
-     * @return
+     * @return the documents of the &lt;add&gt; commands
      * @throws XMLStreamException
      */
     public Collection<LWDocument> readDocs(InputStream input, String missingIdPrefix)
         throws XMLStreamException {
+      final List<LWDocument> docs = new ArrayList<LWDocument>();
+      try {
+        readDocs(input, missingIdPrefix, new DocumentConsumer() {
+          @Override
+          public void accept(LWDocument doc) {
+            docs.add(doc);
+          }
+        });
+      } catch (IOException e) {
+        // not thrown by the list
+        throw new IllegalStateException(e);
+      }
+      return docs;
+    }
+
+    /**
+     * Hand the documents of the &lt;add&gt; commands to the consumer as they are read. Closes the
+     * parser when it is done or on exception
+     *
+     * @return the number of documents read
+     * @throws XMLStreamException
+     */
+    public int readDocs(InputStream input, String missingIdPrefix, DocumentConsumer consumer)
+        throws XMLStreamException, IOException {
       XMLStreamReader parser = inputFactory.createXMLStreamReader(input);
-      Collection<LWDocument> docs = Collections.emptyList();
-      int event = 0;
+      int docCount = 0;
+      int addDepth = 0;
       try {
-        long docCount = 0;
+        int event;
         while ((event = parser.next()) != XMLStreamConstants.END_DOCUMENT) {
-          switch (event) {
-            case XMLStreamConstants.START_ELEMENT: {
-              String currTag = parser.getLocalName();
-              if (currTag.equals("add")) {
-                docs = new ArrayList<LWDocument>();
-              } else if (currTag.equals("doc")) {
-                LWDocument doc = readDoc(parser, missingIdPrefix, docCount);
-                docs.add(doc);
-              }//else, ignore everything else
-            }
-            default: {
-              //do nothing
-            }
+          if (event == XMLStreamConstants.START_ELEMENT) {
+            String currTag = parser.getLocalName();
+            if (currTag.equals("add")) {
+              addDepth++;
+            } else if (addDepth > 0 && currTag.equals("doc")) {
+              consumer.accept(readDoc(parser, missingIdPrefix, docCount));
+              docCount++;
+            }//else, ignore everything else
+          } else if (event == XMLStreamConstants.END_ELEMENT && addDepth > 0
+              && parser.getLocalName().equals("add")) {
+            addDepth--;
           }
         }
       } finally {
         parser.close();
       }
-      return docs;
+      return docCount;
+    }
+
+    /**
+     * @return the number of boosts ignored since the last call
+     */
+    long takeIgnoredBoosts() {
+      long ignored = ignoredBoosts;
+      ignoredBoosts = 0;
+      return ignored;
+    }
+
+    private void ignoreBoost(String element, String boost) {
+      if (ignoredBoosts++ == 0) {
+        log.warn("Ignoring index time boost " + boost + " of " + element + ", Solr doesn't support them");
+      }
+    }
+
+    /**
+     * inc takes a number, the other operations take the field value
+     */
+    private Object updateValue(String name, String update, String value) {
+      if (!"inc".equals(update)) {
+        return value;
+      }
+      String trimmed = value.trim();
+      try {
+        if (trimmed.indexOf('.') < 0 && trimmed.indexOf('e') < 0 && trimmed.indexOf('E') < 0) {
+          return Long.parseLong(trimmed);
+        }
+        return Double.parseDouble(trimmed);
+      } catch (NumberFormatException e) {
+        throw new SolrException(SolrException.ErrorCode.BAD_REQUEST,
+            "Can't inc field " + name + " by '" + value + "', not a number");
+      }
+    }
+
+    private boolean hasId(LWDocument doc) {
+      return doc.getId() != null || doc.getFirstFieldValue(idField) != null;
     }
 
     /**
      * From Solr, copied here to avoid all the other stuff!
      * Given the input stream, read a document
+     * <p/>
+     * The values of the fields with an update attribute are added as a map from the operation to
+     * the value(s), which the SolrInputDocument sends as an atomic update. Index time boosts are not
+     * supported by Solr anymore and are ignored.
      *
      * @since solr 1.3
      */
@@ -169,19 +283,18 @@ public class SolrXMLIngestMapper extends AbstractIngestMapper<Writable, Text> {
       LWDocument doc = createDocument();
 
       String attrName = "";
-      double docBoost = 1.0;
       for (int i = 0; i < parser.getAttributeCount(); i++) {
         attrName = parser.getAttributeLocalName(i);
         if ("boost".equals(attrName)) {
-          docBoost = Float.parseFloat(parser.getAttributeValue(i));
+          ignoreBoost("doc", parser.getAttributeValue(i));
         } else {
           log.warn("Unknown attribute doc/@" + attrName);
         }
       }
 
-      StringBuilder text = new StringBuilder();
+      StringBuilder text = this.text;
+      text.setLength(0);
       String name = null;
-      double boost = 1.0f;
       boolean isNull = false;
       String update = null;
       Map<String, Map<String, Object>> updateMap = null;
@@ -193,7 +306,7 @@ public class SolrXMLIngestMapper extends AbstractIngestMapper<Writable, Text> {
           case XMLStreamConstants.SPACE:
           case XMLStreamConstants.CDATA:
           case XMLStreamConstants.CHARACTERS:
-            text.append(parser.getText());
+            text.append(parser.getTextCharacters(), parser.getTextStart(), parser.getTextLength());
             break;
 
           case XMLStreamConstants.END_ELEMENT:
@@ -201,23 +314,23 @@ public class SolrXMLIngestMapper extends AbstractIngestMapper<Writable, Text> {
               complete = true;
               break;
             } else if ("field".equals(parser.getLocalName())) {
-              Object v = isNull ? null : text.toString();
               if (update != null) {
+                Object v = isNull ? null : updateValue(name, update, text.toString());
                 if (updateMap == null) {
-                  updateMap = new HashMap<String, Map<String, Object>>();
+                  updateMap = new LinkedHashMap<String, Map<String, Object>>();
                 }
                 Map<String, Object> extendedValues = updateMap.get(name);
                 if (extendedValues == null) {
-                  extendedValues = new HashMap<String, Object>(1);
+                  extendedValues = new LinkedHashMap<String, Object>(2);
                   updateMap.put(name, extendedValues);
                 }
-                Object val = extendedValues.get(update);
-                if (val == null) {
+                if (!extendedValues.containsKey(update)) {
                   extendedValues.put(update, v);
                 } else {
                   // multiple val are present
+                  Object val = extendedValues.get(update);
                   if (val instanceof List) {
-                    List list = (List) val;
+                    List<Object> list = (List<Object>) val;
                     list.add(v);
                   } else {
                     List<Object> values = new ArrayList<Object>();
@@ -226,15 +339,10 @@ public class SolrXMLIngestMapper extends AbstractIngestMapper<Writable, Text> {
                     extendedValues.put(update, values);
                   }
                 }
-                break;
+              } else if (!isNull) {
+                //multivalued fields are dealt with later via the update map
+                doc.addField(name, text.toString());
               }
-              //multivalued fields are dealt with later via the update map
-              //TODO: fix boosts.
-              doc.addField(name, v.toString());
-            /*if (boost != 1) {
-              doc.boosts.put(name, boost * docBoost);
-            }*/
-              boost = 1.0f;
             }
             break;
 
@@ -246,8 +354,8 @@ public class SolrXMLIngestMapper extends AbstractIngestMapper<Writable, Text> {
               throw new SolrException(SolrException.ErrorCode.BAD_REQUEST,
                   "unexpected XML tag doc/" + localName);
             }
-            boost = 1.0f;
             update = null;
+            isNull = false;
             String attrVal = "";
             for (int i = 0; i < parser.getAttributeCount(); i++) {
               attrName = parser.getAttributeLocalName(i);
@@ -255,10 +363,14 @@ public class SolrXMLIngestMapper extends AbstractIngestMapper<Writable, Text> {
               if ("name".equals(attrName)) {
                 name = attrVal;
               } else if ("boost".equals(attrName)) {
-                boost = Float.parseFloat(attrVal);
+                ignoreBoost("doc/field", attrVal);
               } else if ("null".equals(attrName)) {
                 isNull = StrUtils.parseBoolean(attrVal);
               } else if ("update".equals(attrName)) {
+                if (!UPDATE_OPERATIONS.contains(attrVal)) {
+                  throw new SolrException(SolrException.ErrorCode.BAD_REQUEST,
+                      "Unknown update operation doc/field/@update='" + attrVal + "'");
+                }
                 update = attrVal;
               } else {
                 log.warn("Unknown attribute doc/field/@" + attrName);
@@ -270,12 +382,11 @@ public class SolrXMLIngestMapper extends AbstractIngestMapper<Writable, Text> {
 
       if (updateMap != null) {
         for (Map.Entry<String, Map<String, Object>> entry : updateMap.entrySet()) {
-          name = entry.getKey();
-          Map<String, Object> value = entry.getValue();
-          //doc.addField(name, value, 1.0f);
-          doc.addField(name, value);
-          //doc.fields.put(name, value.toString());
-          //doc.boosts.put(name, docBoost);
+          doc.addField(entry.getKey(), entry.getValue());
+        }
+        if (!hasId(doc)) {
+          log.warn("Atomic update without " + idField + " in " + missingIdPrefix + ", it will get id "
+              + missingIdPrefix + docCount);
         }
       }
 
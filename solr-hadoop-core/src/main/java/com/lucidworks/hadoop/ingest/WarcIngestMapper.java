@@ -1,5 +1,7 @@
 package com.lucidworks.hadoop.ingest;
 
+import com.lucidworks.hadoop.ingest.util.ContentSniffer;
+import com.lucidworks.hadoop.ingest.util.ContentSniffer.Action;
 import com.lucidworks.hadoop.io.LWDocument;
 
 import org.apache.hadoop.conf.Configuration;
@@ -8,15 +10,23 @@ import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.Reporter;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
 
 import edu.cmu.lemurproject.WarcFileInputFormat;
 import edu.cmu.lemurproject.WarcRecord;
 import edu.cmu.lemurproject.WritableWarcRecord;
 
+/**
+ * Creates one document per WARC record, with the record headers as fields. The records whose
+ * payload is of a type set in {@link ContentSniffer#SKIP_TYPES} are dropped, and the payload of the
+ * ones set in {@link ContentSniffer#METADATA_ONLY_TYPES} isn't indexed. The type is detected from
+ * the payload after the HTTP headers and from the target URI.
+ */
 public class WarcIngestMapper extends AbstractIngestMapper<LongWritable, WritableWarcRecord> {
 
   private static final String WARC_FIELD = "warc.";
+  private static final byte[] HTTP = "HTTP/".getBytes(StandardCharsets.US_ASCII);
 
   private final AbstractJobFixture fixture = new AbstractJobFixture() {
     @Override
@@ -25,6 +35,14 @@ public class WarcIngestMapper extends AbstractIngestMapper<LongWritable, Writabl
     }
   };
 
+  private ContentSniffer sniffer;
+
+  @Override
+  public void configure(JobConf conf) {
+    super.configure(conf);
+    sniffer = new ContentSniffer(conf);
+  }
+
   @Override
   public AbstractJobFixture getFixture() {
     return fixture;
@@ -37,9 +55,22 @@ public class WarcIngestMapper extends AbstractIngestMapper<LongWritable, Writabl
     Reporter reporter,
     Configuration conf) throws IOException {
     String id = value.getRecord().getHeaderMetadataItem("WARC-Record-ID");
-    LWDocument doc = createDocument(id, null);
     WarcRecord record = value.getRecord();
-    doc.setContent(record.getContent());
+    byte[] content = record.getContent();
+    Action action = Action.INDEX;
+    if (sniffer.isEnabled() && content != null) {
+      int payload = payloadOffset(content);
+      String type = sniffer.detect(content, payload, Math.min(content.length - payload, ContentSniffer.HEAD_BYTES),
+        record.getHeaderMetadataItem("WARC-Target-URI"));
+      action = sniffer.actionFor(type, id, reporter);
+      if (action == Action.SKIP) {
+        return SKIPPED;
+      }
+    }
+    LWDocument doc = createDocument(id, null);
+    if (action == Action.INDEX) {
+      doc.setContent(content);
+    }
     //doc.contentType = null; // Not setting the content type, that way Tika can detect it
     for (Map.Entry<String, String> entry : record.getHeaderMetadata()) {
       doc.addField(WARC_FIELD + entry.getKey(), entry.getValue());
@@ -47,4 +78,25 @@ public class WarcIngestMapper extends AbstractIngestMapper<LongWritable, Writabl
     return new LWDocument[]{doc};
   }
 
+  /**
+   * @return the offset of the payload of an HTTP response or request, past its headers, else 0
+   */
+  static int payloadOffset(byte[] content) {
+    if (content.length < HTTP.length) {
+      return 0;
+    }
+    for (int i = 0; i < HTTP.length; i++) {
+      if (content[i] != HTTP[i]) {
+        return 0;
+      }
+    }
+    int last = Math.min(content.length, ContentSniffer.HEAD_BYTES) - 4;
+    for (int i = HTTP.length; i <= last; i++) {
+      if (content[i] == '\r' && content[i + 1] == '\n' && content[i + 2] == '\r' && content[i + 3] == '\n') {
+        return i + 4;
+      }
+    }
+    return 0;
+  }
+
 }
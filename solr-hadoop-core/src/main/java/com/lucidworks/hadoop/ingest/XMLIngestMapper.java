@@ -1,8 +1,11 @@
 package com.lucidworks.hadoop.ingest;
 
 import com.lucidworks.hadoop.cache.DistributedCacheHandler;
+import com.lucidworks.hadoop.ingest.util.EmptyEntityResolver;
+import com.lucidworks.hadoop.ingest.util.StreamingXPath;
 import com.lucidworks.hadoop.io.LWDocument;
 import com.lucidworks.hadoop.io.LWDocumentProvider;
+import com.lucidworks.hadoop.io.ScanningXMLInputFormat;
 import com.lucidworks.hadoop.io.XMLInputFormat;
 
 import org.apache.hadoop.conf.Configuration;
@@ -14,27 +17,46 @@ import org.apache.hadoop.mapred.Reporter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.w3c.dom.Attr;
-import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
+import org.xml.sax.Attributes;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.DefaultHandler;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.SequenceInputStream;
 import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.transform.Templates;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMResult;
-import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.sax.SAXResult;
 import javax.xml.transform.stream.StreamSource;
 import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
@@ -47,6 +69,11 @@ public class XMLIngestMapper extends AbstractIngestMapper<Writable, Text> {
   private transient static Logger log = LoggerFactory.getLogger(XMLIngestMapper.class);
 
   public static final String LWW_XSLT = "lww.xslt";
+  public static final String LWW_XML_STREAMING = "lww.xml.streaming";
+  // read the records with the ScanningXMLInputFormat
+  public static final String LWW_XML_SCANNING = "lww.xml.scanning";
+
+  private static final String REPORT_CDATA_EVENT = "http://java.sun.com/xml/stream/properties/report-cdata-event";
 
   private final AbstractJobFixture fixture = new AbstractJobFixture() {
     @Override
@@ -57,7 +84,11 @@ public class XMLIngestMapper extends AbstractIngestMapper<Writable, Text> {
       }
       boolean override = conf.getBoolean(IngestJob.INPUT_FORMAT_OVERRIDE, false);
       if (!override) {
-        conf.setInputFormat(XMLInputFormat.class);
+        if (conf.getBoolean(LWW_XML_SCANNING, false)) {
+          conf.setInputFormat(ScanningXMLInputFormat.class);
+        } else {
+          conf.setInputFormat(XMLInputFormat.class);
+        }
         if (conf.get(XMLInputFormat.START_TAG_KEY) == null || conf.get(XMLInputFormat.END_TAG_KEY) == null) {
           throw new RuntimeException("Missing XMLInputFormat Tags " + XMLInputFormat.START_TAG_KEY + " and/or " +
             XMLInputFormat.END_TAG_KEY);
@@ -66,12 +97,31 @@ public class XMLIngestMapper extends AbstractIngestMapper<Writable, Text> {
     }
   };
 
+  // compiled stylesheets by XSLt source, shared by the mappers of the JVM
+  private static final ConcurrentMap<String, Templates> XSLT_TEMPLATES = new ConcurrentHashMap<>();
+
   protected DocumentBuilder docBuilder;
   protected String docXPath;
   protected XPathExpression docXPathExpr;
   protected XPathExpression idXPathExpr;
   protected String includeParentAttrsPrefix = null;
-  protected Transformer xsltTransformer = null;
+  protected Templates xsltTemplates = null;
+  protected boolean streaming = false;
+  protected XMLInputFactory inputFactory;
+  protected StreamingXPath docStreamingXPath;
+  protected StreamingXPath idStreamingXPath;
+
+  // Transformers are not thread safe, Templates are
+  private final ThreadLocal<Transformer> xsltTransformer = new ThreadLocal<Transformer>() {
+    @Override
+    protected Transformer initialValue() {
+      try {
+        return xsltTemplates.newTransformer();
+      } catch (TransformerConfigurationException e) {
+        throw new RuntimeException("Failed to initialize XSLt Transformer due to: " + e, e);
+      }
+    }
+  };
 
   @Override
   public void configure(JobConf conf) {
@@ -90,12 +140,7 @@ public class XMLIngestMapper extends AbstractIngestMapper<Writable, Text> {
     if (xslt != null) {
       xslt = xslt.trim();
       if (!xslt.isEmpty()) {
-        try {
-          TransformerFactory factory = TransformerFactory.newInstance();
-          xsltTransformer = factory.newTransformer(new StreamSource(new StringReader(xslt)));
-        } catch (TransformerConfigurationException e) {
-          throw new RuntimeException("Failed to initialize XSLt Transformer due to: " + e + ";\nXSL: " + xslt, e);
-        }
+        xsltTemplates = getTemplates(xslt);
       }
     }
 
@@ -117,6 +162,49 @@ public class XMLIngestMapper extends AbstractIngestMapper<Writable, Text> {
     }
 
     includeParentAttrsPrefix = conf.get("lww.xml.includeParentAttrsPrefix");
+
+    streaming = conf.getBoolean(LWW_XML_STREAMING, false);
+    if (streaming) {
+      configureStreaming(docXPath, idXPath);
+    }
+  }
+
+  private static Templates getTemplates(String xslt) {
+    Templates templates = XSLT_TEMPLATES.get(xslt);
+    if (templates == null) {
+      try {
+        templates = TransformerFactory.newInstance().newTemplates(new StreamSource(new StringReader(xslt)));
+      } catch (TransformerConfigurationException e) {
+        throw new RuntimeException("Failed to initialize XSLt Transformer due to: " + e + ";\nXSL: " + xslt, e);
+      }
+      Templates existing = XSLT_TEMPLATES.putIfAbsent(xslt, templates);
+      if (existing != null) {
+        templates = existing;
+      }
+    }
+    return templates;
+  }
+
+  private void configureStreaming(String docXPath, String idXPath) {
+    try {
+      docStreamingXPath = StreamingXPath.compile(docXPath);
+      if (idXPath != null) {
+        idStreamingXPath = StreamingXPath.compile(idXPath);
+        if (idStreamingXPath.isAbsolute()) {
+          throw new IllegalArgumentException("the ID xpath must be relative to the document element");
+        }
+      }
+    } catch (IllegalArgumentException e) {
+      throw new RuntimeException("Failed to compile streaming xpath due to: " + e.getMessage(), e);
+    }
+    inputFactory = XMLInputFactory.newInstance();
+    EmptyEntityResolver.configureXMLInputFactory(inputFactory);
+    try {
+      // CDATA sections are fields of their own with the DOM, the JDK parser reports them as characters by default
+      inputFactory.setProperty(REPORT_CDATA_EVENT, Boolean.TRUE);
+    } catch (IllegalArgumentException e) {
+      log.debug("Unable to set the '" + REPORT_CDATA_EVENT + "' property for " + inputFactory);
+    }
   }
 
   @Override
@@ -127,7 +215,7 @@ public class XMLIngestMapper extends AbstractIngestMapper<Writable, Text> {
     Configuration configuration) throws IOException {
     LWDocument[] docs = null;
     try {
-      docs = toDocumentsImpl(key, text);
+      docs = streaming ? toDocumentsStreaming(key, text) : toDocumentsImpl(key, text);
     } catch (Exception exc) {
       log.error("Failed to process XML " + key + " due to: " + exc, exc);
       reporter.incrCounter("XMLIngestMapper", "BadDocs", 1);
@@ -146,28 +234,7 @@ public class XMLIngestMapper extends AbstractIngestMapper<Writable, Text> {
     Writable key,
     Text text) throws Exception {
 
-    String dataText = text.toString();
-    InputSource input = new InputSource(new StringReader(dataText));
-
-    Document doc;
-    try {
-      doc = docBuilder.parse(input);
-    } catch (SAXException e) {
-      dataText = "<" + dataText + ">";
-      log.warn("Trying to process [" + key + "] again.");
-      input = new InputSource(new StringReader(dataText));
-      doc = docBuilder.parse(input);
-    }
-
-    Node docNode = doc;
-    if (xsltTransformer != null) {
-      DOMSource in = new DOMSource(doc);
-      DOMResult out = new DOMResult();
-      xsltTransformer.transform(in, out);
-      docNode = out.getNode();
-      xsltTransformer.reset();
-      log.info("transformed doc into: " + docNode);
-    }
+    Node docNode = parse(new InputStreamReader(openRecord(key, text), StandardCharsets.UTF_8));
 
     NodeList nodeList = (NodeList) docXPathExpr.evaluate(docNode, XPathConstants.NODESET);
 
@@ -189,6 +256,357 @@ public class XMLIngestMapper extends AbstractIngestMapper<Writable, Text> {
     return docs.toArray(new LWDocument[0]);
   }
 
+  /**
+   * The DOM of the record, or the DOM the XSLt produces from it: the stylesheet reads the record
+   * itself, not a DOM of it.
+   */
+  private Node parse(Reader record) throws IOException, SAXException, TransformerException {
+    if (xsltTemplates == null) {
+      return docBuilder.parse(new InputSource(record));
+    }
+    DOMResult out = new DOMResult();
+    xsltTransformer.get().transform(new StreamSource(record), out);
+    log.debug("transformed doc into: " + out.getNode());
+    return out.getNode();
+  }
+
+  /**
+   * Build the documents in one pass, with the same fields {@link #processElement} adds from the
+   * DOM, from the StAX events of the record or the SAX events the XSLt produces from it. An element
+   * matching the doc xpath inside a document is part of that document, not a document of its own.
+   */
+  protected LWDocument[] toDocumentsStreaming(Writable key, Text text) throws XMLStreamException, TransformerException {
+    return readDocuments(key.toString(), openRecord(key, text));
+  }
+
+  /**
+   * Read the record from the Text bytes, which are UTF-8. A record that doesn't start with markup
+   * is a fragment the XMLInputFormat cut inside the tags, and gets wrapped in &lt;...&gt;.
+   */
+  static InputStream openRecord(Writable key, Text text) {
+    byte[] bytes = text.getBytes();
+    int length = text.getLength();
+    int start = 0;
+    if (length >= 3 && bytes[0] == (byte) 0xEF && bytes[1] == (byte) 0xBB && bytes[2] == (byte) 0xBF) {
+      start = 3;// byte order mark
+    }
+    InputStream record = new ByteArrayInputStream(bytes, start, length - start);
+    int first = start;
+    while (first < length && isWhitespace(bytes[first])) {
+      first++;
+    }
+    if (first == length || bytes[first] == '<') {
+      return record;
+    }
+    log.debug("Wrapping fragment [" + key + "] in <...>");
+    return new SequenceInputStream(Collections.enumeration(Arrays.asList(
+      new ByteArrayInputStream(new byte[] {'<'}),
+      record,
+      new ByteArrayInputStream(new byte[] {'>'}))));
+  }
+
+  private static boolean isWhitespace(byte b) {
+    return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+  }
+
+  private LWDocument[] readDocuments(String keyStr, InputStream input) throws XMLStreamException, TransformerException {
+    StreamingDocumentBuilder builder = new StreamingDocumentBuilder(keyStr);
+    if (xsltTemplates != null) {
+      SAXDocumentHandler handler = new SAXDocumentHandler(builder);
+      SAXResult result = new SAXResult(handler);
+      result.setLexicalHandler(handler);
+      xsltTransformer.get().transform(new StreamSource(new InputStreamReader(input, StandardCharsets.UTF_8)), result);
+    } else {
+      XMLStreamReader parser = inputFactory.createXMLStreamReader(input, StandardCharsets.UTF_8.name());
+      try {
+        while (parser.hasNext()) {
+          switch (parser.next()) {
+            case XMLStreamConstants.START_ELEMENT:
+              builder.startElement(toPathElement(parser));
+              break;
+            case XMLStreamConstants.END_ELEMENT:
+              builder.endElement();
+              break;
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.SPACE:
+              builder.text(parser.getTextCharacters(), parser.getTextStart(), parser.getTextLength(), false);
+              break;
+            case XMLStreamConstants.CDATA:
+              builder.text(parser.getTextCharacters(), parser.getTextStart(), parser.getTextLength(), true);
+              break;
+            default:
+              // comments and processing instructions split the text like in the DOM
+              builder.endText();
+          }
+        }
+      } finally {
+        parser.close();
+      }
+    }
+    List<LWDocument> docs = builder.getDocuments();
+    log.info("Found " + docs.size() + " docs using streaming XPath: " + docXPath);
+    return docs.toArray(new LWDocument[0]);
+  }
+
+  /**
+   * The name and attributes of the current element, with the namespace declarations
+   */
+  private static StreamingXPath.PathElement toPathElement(XMLStreamReader parser) {
+    int namespaces = parser.getNamespaceCount();
+    int attributes = parser.getAttributeCount();
+    String[] names = new String[namespaces + attributes];
+    String[] values = new String[names.length];
+    for (int i = 0; i < namespaces; i++) {
+      names[i] = namespaceAttribute(parser.getNamespacePrefix(i));
+      values[i] = parser.getNamespaceURI(i);
+    }
+    for (int i = 0; i < attributes; i++) {
+      names[namespaces + i] = qualifiedName(parser.getAttributePrefix(i), parser.getAttributeLocalName(i));
+      values[namespaces + i] = parser.getAttributeValue(i);
+    }
+    return newPathElement(qualifiedName(parser.getPrefix(), parser.getLocalName()), names, values);
+  }
+
+  /**
+   * Attributes are sorted by name, like in the DOM
+   */
+  private static StreamingXPath.PathElement newPathElement(String name, String[] names, String[] values) {
+    for (int i = 1; i < names.length; i++) {
+      for (int j = i; j > 0 && names[j - 1].compareTo(names[j]) > 0; j--) {
+        String attrName = names[j];
+        names[j] = names[j - 1];
+        names[j - 1] = attrName;
+        String value = values[j];
+        values[j] = values[j - 1];
+        values[j - 1] = value;
+      }
+    }
+    return new StreamingXPath.PathElement(name, names, values);
+  }
+
+  private static String qualifiedName(String prefix, String localName) {
+    return prefix == null || prefix.isEmpty() ? localName : prefix + ":" + localName;
+  }
+
+  private static String namespaceAttribute(String prefix) {
+    return prefix == null || prefix.isEmpty() ? "xmlns" : "xmlns:" + prefix;
+  }
+
+  private void addParentAttributes(LWDocument pDoc, List<StreamingXPath.PathElement> path) {
+    if (includeParentAttrsPrefix != null && path.size() > 1) {
+      StreamingXPath.PathElement parent = path.get(path.size() - 2);
+      for (int a = 0; a < parent.getAttributeCount(); a++) {
+        pDoc.addField(includeParentAttrsPrefix + parent.getAttributeName(a), parent.getAttributeValue(a));
+      }
+    }
+  }
+
+  private static void addAttributes(LWDocument pDoc, String fieldPrefix, StreamingXPath.PathElement element) {
+    for (int a = 0; a < element.getAttributeCount(); a++) {
+      String attrName = element.getAttributeName(a);
+      String fieldName = fieldPrefix.isEmpty() ? attrName : fieldPrefix + "." + attrName;
+      pDoc.addField(fieldName, element.getAttributeValue(a));
+    }
+  }
+
+  /**
+   * Builds the documents of one record from its element and text events
+   */
+  private class StreamingDocumentBuilder {
+    private final String keyStr;
+    private final List<LWDocument> docs = new ArrayList<>();
+    private final List<StreamingXPath.PathElement> path = new ArrayList<>();
+    // field name prefix of the open elements of the current document
+    private final List<String> prefixes = new ArrayList<>();
+    // the DOM has a text node per run of characters, CDATA sections are nodes of their own
+    private final StringBuilder pendingText = new StringBuilder();
+    private boolean hasPendingText = false;
+    private boolean pendingCData = false;
+    private LWDocument doc = null;
+    private int docDepth = 0;
+    private int docIndex = 0;
+    private String docId = null;
+    private StringBuilder idText = null;
+    private int idDepth = 0;
+
+    StreamingDocumentBuilder(String keyStr) {
+      this.keyStr = keyStr;
+    }
+
+    void startElement(StreamingXPath.PathElement element) {
+      endText();
+      path.add(element);
+      if (doc == null) {
+        if (docStreamingXPath.matches(path, 0)) {
+          doc = LWDocumentProvider.createDocument();
+          docDepth = path.size();
+          docId = null;
+          prefixes.add("");
+          addParentAttributes(doc, path);
+          addAttributes(doc, "", element);
+        }
+      } else {
+        String parentPrefix = prefixes.get(prefixes.size() - 1);
+        String prefix = parentPrefix.isEmpty() ? element.getName() : parentPrefix + "." + element.getName();
+        prefixes.add(prefix);
+        addAttributes(doc, prefix, element);
+      }
+      if (doc != null && idStreamingXPath != null && docId == null && idText == null
+        && idStreamingXPath.matches(path, docDepth)) {
+        if (idStreamingXPath.getAttribute() != null) {
+          docId = element.getAttribute(idStreamingXPath.getAttribute());
+        } else {
+          idText = new StringBuilder();
+          idDepth = path.size();
+        }
+      }
+    }
+
+    void endElement() {
+      endText();
+      if (idText != null && path.size() == idDepth) {
+        docId = idText.toString();
+        idText = null;
+      }
+      if (doc != null) {
+        if (path.size() == docDepth) {
+          if (docId == null) {
+            // like the DOM engine: an ID xpath without a match evaluates to ""
+            docId = idStreamingXPath != null ? "" : keyStr + "-" + docIndex;
+          }
+          doc.setId(docId);
+          docs.add(doc);
+          doc = null;
+          docIndex++;
+          prefixes.clear();
+        } else {
+          prefixes.remove(prefixes.size() - 1);
+        }
+      }
+      path.remove(path.size() - 1);
+    }
+
+    void text(char[] chars, int start, int length, boolean cdata) {
+      if (doc != null) {
+        if (hasPendingText && pendingCData != cdata) {
+          endText();
+        }
+        pendingText.append(chars, start, length);
+        hasPendingText = true;
+        pendingCData = cdata;
+      }
+      if (idText != null) {
+        idText.append(chars, start, length);
+      }
+    }
+
+    void endText() {
+      if (hasPendingText) {
+        String text = pendingText.toString().trim();
+        if (!text.isEmpty()) {
+          doc.addField(prefixes.get(prefixes.size() - 1), text);
+        }
+        pendingText.setLength(0);
+        hasPendingText = false;
+      }
+    }
+
+    List<LWDocument> getDocuments() {
+      return docs;
+    }
+  }
+
+  /**
+   * Feeds the output of the XSLt to a {@link StreamingDocumentBuilder}
+   */
+  private static class SAXDocumentHandler extends DefaultHandler implements LexicalHandler {
+    private final StreamingDocumentBuilder builder;
+    // declared by the next element
+    private final List<String> namespaceNames = new ArrayList<>();
+    private final List<String> namespaceUris = new ArrayList<>();
+    private boolean cdata = false;
+
+    SAXDocumentHandler(StreamingDocumentBuilder builder) {
+      this.builder = builder;
+    }
+
+    @Override
+    public void startPrefixMapping(String prefix, String uri) {
+      namespaceNames.add(namespaceAttribute(prefix));
+      namespaceUris.add(uri);
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes attributes) {
+      int namespaces = namespaceNames.size();
+      String[] names = new String[namespaces + attributes.getLength()];
+      String[] values = new String[names.length];
+      for (int i = 0; i < namespaces; i++) {
+        names[i] = namespaceNames.get(i);
+        values[i] = namespaceUris.get(i);
+      }
+      for (int i = 0; i < attributes.getLength(); i++) {
+        String name = attributes.getQName(i);
+        names[namespaces + i] = name.isEmpty() ? attributes.getLocalName(i) : name;
+        values[namespaces + i] = attributes.getValue(i);
+      }
+      namespaceNames.clear();
+      namespaceUris.clear();
+      builder.startElement(newPathElement(qName.isEmpty() ? localName : qName, names, values));
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) {
+      builder.endElement();
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) {
+      builder.text(ch, start, length, cdata);
+    }
+
+    @Override
+    public void ignorableWhitespace(char[] ch, int start, int length) {
+      builder.text(ch, start, length, false);
+    }
+
+    @Override
+    public void processingInstruction(String target, String data) {
+      builder.endText();
+    }
+
+    @Override
+    public void startCDATA() {
+      cdata = true;
+    }
+
+    @Override
+    public void endCDATA() {
+      cdata = false;
+    }
+
+    @Override
+    public void comment(char[] ch, int start, int length) {
+      builder.endText();
+    }
+
+    @Override
+    public void startDTD(String name, String publicId, String systemId) {
+    }
+
+    @Override
+    public void endDTD() {
+    }
+
+    @Override
+    public void startEntity(String name) {
+    }
+
+    @Override
+    public void endEntity(String name) {
+    }
+  }
+
   protected LWDocument processElement(
     String keyStr,
     Element elm,
@@ -1,5 +1,7 @@
 package com.lucidworks.hadoop.ingest;
 
+import com.lucidworks.hadoop.ingest.util.ContentSniffer;
+import com.lucidworks.hadoop.ingest.util.ContentSniffer.Action;
 import com.lucidworks.hadoop.io.LWDocument;
 import com.lucidworks.hadoop.io.ZipFileInputFormat;
 
@@ -15,6 +17,11 @@ import java.util.Map;
 
 import static com.lucidworks.hadoop.utils.ConfigurationKeys.MIME_TYPE;
 
+/**
+ * Creates one document per zip entry. The entries of the types set in
+ * {@link ContentSniffer#SKIP_TYPES} are dropped, and the content of the ones set in
+ * {@link ContentSniffer#METADATA_ONLY_TYPES} isn't indexed.
+ */
 public class ZipIngestMapper extends AbstractIngestMapper<Text, BytesWritable> {
 
   private final AbstractJobFixture fixture = new AbstractJobFixture() {
@@ -25,9 +32,12 @@ public class ZipIngestMapper extends AbstractIngestMapper<Text, BytesWritable> {
     }
   };
 
+  private ContentSniffer sniffer;
+
   @Override
   public void configure(JobConf conf) {
     super.configure(conf);
+    sniffer = new ContentSniffer(conf);
   }
 
   @Override
@@ -47,8 +57,21 @@ public class ZipIngestMapper extends AbstractIngestMapper<Text, BytesWritable> {
     if (mimeType != null) {
       metadata.put(MIME_TYPE, mimeType);
     }
+    Action action = Action.INDEX;
+    if (sniffer.isEnabled()) {
+      String type = sniffer.detect(value.getBytes(), 0, Math.min(value.getLength(), ContentSniffer.HEAD_BYTES),
+        key.toString());
+      action = sniffer.actionFor(type, key.toString(), reporter);
+      if (action == Action.SKIP) {
+        return SKIPPED;
+      } else if (action == Action.METADATA_ONLY && mimeType == null) {
+        metadata.put(MIME_TYPE, type);
+      }
+    }
     LWDocument document = createDocument(key.toString(), metadata);
-    document.setContent(value.getBytes());
+    if (action == Action.INDEX) {
+      document.setContent(value.getBytes());
+    }
 
     return new LWDocument[] {document};
   }
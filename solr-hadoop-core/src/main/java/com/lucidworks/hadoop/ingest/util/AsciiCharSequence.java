@@ -0,0 +1,68 @@
+package com.lucidworks.hadoop.ingest.util;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A CharSequence view over bytes known to be ASCII, so they can be matched without being decoded
+ * into a String first. The view is reset onto new bytes with {@link #set(byte[], int, int)}.
+ */
+public class AsciiCharSequence implements CharSequence {
+  private byte[] bytes;
+  private int offset;
+  private int length;
+
+  public AsciiCharSequence() {
+    this(new byte[0], 0, 0);
+  }
+
+  public AsciiCharSequence(byte[] bytes, int offset, int length) {
+    set(bytes, offset, length);
+  }
+
+  public void set(byte[] bytes, int offset, int length) {
+    this.bytes = bytes;
+    this.offset = offset;
+    this.length = length;
+  }
+
+  /**
+   * @return true if all the bytes of the range are ASCII
+   */
+  public static boolean isAscii(byte[] bytes, int offset, int length) {
+    for (int i = offset; i < offset + length; i++) {
+      if (bytes[i] < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int length() {
+    return length;
+  }
+
+  @Override
+  public char charAt(int index) {
+    if (index < 0 || index >= length) {
+      throw new IndexOutOfBoundsException("index " + index + ", length " + length);
+    }
+    return (char) bytes[offset + index];
+  }
+
+  /**
+   * Matcher.group calls this and then toString, so it returns the String directly
+   */
+  @Override
+  public CharSequence subSequence(int start, int end) {
+    if (start < 0 || end > length || start > end) {
+      throw new IndexOutOfBoundsException("start " + start + ", end " + end + ", length " + length);
+    }
+    return new String(bytes, offset + start, end - start, StandardCharsets.ISO_8859_1);
+  }
+
+  @Override
+  public String toString() {
+    return new String(bytes, offset, length, StandardCharsets.ISO_8859_1);
+  }
+}
@@ -0,0 +1,323 @@
+package com.lucidworks.hadoop.ingest.util;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import org.apache.commons.csv.CSVStrategy;
+
+/**
+ * Splits one UTF-8 encoded CSV record into cells, following the rules CSVParser applies for a
+ * {@link CSVStrategy}: encapsulated cells with doubled encapsulators, escapes, comment lines, empty
+ * lines and leading/trailing whitespace handling.
+ * <p/>
+ * Cells are not copied: they point into the record bytes, except for the ones that need
+ * unescaping, which are written once into a buffer owned by the tokenizer. Nothing is allocated
+ * per record once the buffers have grown to the widest record seen, and a String is only created
+ * for the cells that are asked for.
+ * <p/>
+ * Working on bytes requires the special characters of the strategy to be ASCII, and unicode escapes
+ * are not interpreted; see {@link #supports(CSVStrategy)}. Only ASCII whitespace is recognized as
+ * leading/trailing whitespace.
+ * <p/>
+ * Instances are not thread safe.
+ */
+public class CSVTokenizer {
+
+  // CSVStrategy.COMMENTS_DISABLED, ESCAPE_DISABLED and ENCAPSULATOR_DISABLED
+  private static final char DISABLED = (char) -2;
+  // never equal to a (signed) byte
+  private static final int NO_BYTE = Integer.MIN_VALUE;
+  private static final int NONE = -1;
+
+  private final int delimiter;
+  private final int encapsulator;
+  private final int escape;
+  private final int commentStart;
+  private final boolean ignoreLeadingWhitespaces;
+  private final boolean ignoreTrailingWhitespaces;
+  private final boolean ignoreEmptyLines;
+
+  private byte[] record;
+  private byte[] unescaped = new byte[256];
+  private int unescapedLength;
+
+  private int count;
+  private int[] starts = new int[16];
+  private int[] ends = new int[16];
+  private boolean[] isUnescaped = new boolean[16];
+
+  public CSVTokenizer(CSVStrategy strategy) {
+    if (!supports(strategy)) {
+      throw new IllegalArgumentException("CSV strategy needs CSVParser: " + strategy);
+    }
+    delimiter = strategy.getDelimiter();
+    encapsulator = toByte(strategy.getEncapsulator());
+    escape = toByte(strategy.getEscape());
+    commentStart = toByte(strategy.getCommentStart());
+    ignoreLeadingWhitespaces = strategy.getIgnoreLeadingWhitespaces();
+    ignoreTrailingWhitespaces = strategy.getIgnoreTrailingWhitespaces();
+    ignoreEmptyLines = strategy.getIgnoreEmptyLines();
+  }
+
+  /**
+   * @return true if records of this strategy can be tokenized as bytes
+   */
+  public static boolean supports(CSVStrategy strategy) {
+    return !strategy.getUnicodeEscapeInterpretation()
+        && strategy.getDelimiter() < 0x80
+        && isAsciiOrDisabled(strategy.getEncapsulator())
+        && isAsciiOrDisabled(strategy.getEscape())
+        && isAsciiOrDisabled(strategy.getCommentStart());
+  }
+
+  private static boolean isAsciiOrDisabled(char c) {
+    return c < 0x80 || c == DISABLED;
+  }
+
+  private static int toByte(char c) {
+    return c == DISABLED ? NO_BYTE : c;
+  }
+
+  /**
+   * Split the record into cells. Anything after an unquoted end of line is ignored.
+   *
+   * @return the number of cells, 0 for an empty, ignored or comment record
+   * @throws IOException for the malformed records CSVParser rejects
+   */
+  public int tokenize(byte[] bytes, int offset, int length) throws IOException {
+    record = bytes;
+    count = 0;
+    unescapedLength = 0;
+    int pos = offset;
+    int end = offset + length;
+    if (length == 0 || (ignoreEmptyLines && isEndOfLine(bytes[pos]))) {
+      return 0;
+    }
+    while (true) {
+      if (ignoreLeadingWhitespaces) {
+        while (pos < end && isWhitespace(bytes[pos])) {
+          pos++;
+        }
+      }
+      if (pos >= end || isEndOfLine(bytes[pos])) {
+        addCell(pos, pos, false);
+        return count;
+      }
+      int b = bytes[pos];
+      if (b == commentStart) {
+        // CSVParser skips the rest of the line
+        return count;
+      } else if (b == delimiter) {
+        addCell(pos, pos, false);
+        pos++;
+        continue;
+      } else if (b == encapsulator) {
+        pos = readEncapsulated(bytes, pos + 1, end);
+      } else {
+        pos = readSimple(bytes, pos, end);
+      }
+      if (pos < end && bytes[pos] == delimiter) {
+        pos++;
+      } else {
+        return count;
+      }
+    }
+  }
+
+  private int readSimple(byte[] bytes, int start, int end) throws IOException {
+    int pos = start;
+    boolean escaped = false;
+    while (pos < end) {
+      int b = bytes[pos];
+      if (b == delimiter || isEndOfLine(b)) {
+        break;
+      }
+      if (b == escape) {
+        checkEscape(pos, end);
+        escaped = true;
+        pos += 2;
+      } else {
+        pos++;
+      }
+    }
+    if (!escaped) {
+      int cellEnd = pos;
+      if (ignoreTrailingWhitespaces) {
+        while (cellEnd > start && isWhitespace(bytes[cellEnd - 1])) {
+          cellEnd--;
+        }
+      }
+      addCell(start, cellEnd, false);
+      return pos;
+    }
+
+    int cellStart = unescapedLength;
+    for (int i = start; i < pos; i++) {
+      if (bytes[i] == escape) {
+        append(unescape(bytes[++i]));
+      } else {
+        append(bytes[i]);
+      }
+    }
+    if (ignoreTrailingWhitespaces) {
+      while (unescapedLength > cellStart && isWhitespace(unescaped[unescapedLength - 1])) {
+        unescapedLength--;
+      }
+    }
+    addCell(cellStart, unescapedLength, true);
+    return pos;
+  }
+
+  private int readEncapsulated(byte[] bytes, int start, int end) throws IOException {
+    int pos = start;
+    int cellStart = NONE;// set once the cell has to be unescaped
+    int cellEnd;
+    while (true) {
+      if (pos >= end) {
+        throw new IOException("EOF reached before encapsulated token finished");
+      }
+      int b = bytes[pos];
+      if (b == escape || (b == encapsulator && pos + 1 < end && bytes[pos + 1] == encapsulator)) {
+        if (cellStart == NONE) {
+          cellStart = unescapedLength;
+          append(bytes, start, pos - start);
+        }
+        if (b == escape) {
+          checkEscape(pos, end);
+          append(unescape(bytes[pos + 1]));
+        } else {
+          append((byte) b);
+        }
+        pos += 2;
+      } else if (b == encapsulator) {
+        cellEnd = pos++;
+        break;
+      } else {
+        if (cellStart != NONE) {
+          append((byte) b);
+        }
+        pos++;
+      }
+    }
+    // only whitespace may follow, up to the delimiter or the end of the record
+    while (pos < end && bytes[pos] != delimiter && !isEndOfLine(bytes[pos])) {
+      if (!isWhitespace(bytes[pos])) {
+        throw new IOException("invalid char between encapsulated token end delimiter");
+      }
+      pos++;
+    }
+    if (cellStart == NONE) {
+      addCell(start, cellEnd, false);
+    } else {
+      addCell(cellStart, unescapedLength, true);
+    }
+    return pos;
+  }
+
+  private static void checkEscape(int pos, int end) throws IOException {
+    if (pos + 1 >= end) {
+      throw new IOException("EOF whilst processing escape sequence");
+    }
+  }
+
+  private static byte unescape(byte c) {
+    switch (c) {
+      case 'r':
+        return '\r';
+      case 'n':
+        return '\n';
+      case 't':
+        return '\t';
+      case 'b':
+        return '\b';
+      case 'f':
+        return '\f';
+      default:
+        return c;
+    }
+  }
+
+  private boolean isWhitespace(int b) {
+    return b >= 0 && b != delimiter && Character.isWhitespace((char) b);
+  }
+
+  private static boolean isEndOfLine(int b) {
+    return b == '\n' || b == '\r';
+  }
+
+  private void append(byte b) {
+    if (unescapedLength == unescaped.length) {
+      unescaped = Arrays.copyOf(unescaped, unescaped.length * 2);
+    }
+    unescaped[unescapedLength++] = b;
+  }
+
+  private void append(byte[] bytes, int offset, int length) {
+    if (unescapedLength + length > unescaped.length) {
+      unescaped = Arrays.copyOf(unescaped, Math.max(unescaped.length * 2, unescapedLength + length));
+    }
+    System.arraycopy(bytes, offset, unescaped, unescapedLength, length);
+    unescapedLength += length;
+  }
+
+  private void addCell(int start, int end, boolean inUnescaped) {
+    if (count == starts.length) {
+      starts = Arrays.copyOf(starts, count * 2);
+      ends = Arrays.copyOf(ends, count * 2);
+      isUnescaped = Arrays.copyOf(isUnescaped, count * 2);
+    }
+    starts[count] = start;
+    ends[count] = end;
+    isUnescaped[count] = inUnescaped;
+    count++;
+  }
+
+  /**
+   * @return the number of cells of the last record
+   */
+  public int getCount() {
+    return count;
+  }
+
+  /**
+   * @return the cell as CSVParser returns it
+   */
+  public String get(int cell) {
+    byte[] bytes = isUnescaped[cell] ? unescaped : record;
+    return new String(bytes, starts[cell], ends[cell] - starts[cell], StandardCharsets.UTF_8);
+  }
+
+  /**
+   * @return true if the cell is empty once trimmed as {@link String#trim()} does
+   */
+  public boolean isBlank(int cell) {
+    byte[] bytes = isUnescaped[cell] ? unescaped : record;
+    for (int i = starts[cell]; i < ends[cell]; i++) {
+      if (!isTrimmed(bytes[i])) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return the cell trimmed as {@link String#trim()} does
+   */
+  public String getTrimmed(int cell) {
+    byte[] bytes = isUnescaped[cell] ? unescaped : record;
+    int start = starts[cell];
+    int end = ends[cell];
+    while (start < end && isTrimmed(bytes[start])) {
+      start++;
+    }
+    while (end > start && isTrimmed(bytes[end - 1])) {
+      end--;
+    }
+    return new String(bytes, start, end - start, StandardCharsets.UTF_8);
+  }
+
+  // String.trim() removes the characters up to and including space, all of them are single bytes in UTF-8
+  private static boolean isTrimmed(byte b) {
+    return b >= 0 && b <= ' ';
+  }
+}
@@ -0,0 +1,299 @@
+package com.lucidworks.hadoop.ingest.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapred.Reporter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Detects the type of a file from its first {@link #HEAD_BYTES} bytes (magic numbers) and its name
+ * (extension), so the mappers can drop the types listed in {@link #SKIP_TYPES}, or index only the
+ * metadata of the ones listed in {@link #METADATA_ONLY_TYPES}, before reading the rest of the file
+ * and handing it to Tika.
+ * <p/>
+ * Types are listed as comma separated MIME types, where "video/*" stands for all video types. The
+ * detection only knows the common media, archive, executable and document formats: the files of
+ * any other type are indexed. A generic container detected from its magic number (zip, OLE2) takes
+ * the more specific type of its extension if there is one, so that docx or xls files are not taken
+ * for archives. The ISO base media files (mp4, m4a, mov, 3gp, heic, avif...) all start with an ftyp
+ * box, they are told apart by its major brand, and those with a generic brand (isom, mp42...) are
+ * taken for mp4 videos unless their extension says otherwise.
+ * <p/>
+ * Instances are not thread safe.
+ */
+public class ContentSniffer {
+  private static final Logger log = LoggerFactory.getLogger(ContentSniffer.class);
+
+  public static final String SKIP_TYPES = "lww.sniff.skip.types";
+  public static final String METADATA_ONLY_TYPES = "lww.sniff.metadata.only.types";
+
+  /**
+   * The number of bytes to read ahead of the detection
+   */
+  public static final int HEAD_BYTES = 4096;
+
+  public static final String COUNTER_GROUP = "ContentSniffer";
+  public static final String SKIPPED = "Skipped";
+  public static final String METADATA_ONLY = "MetadataOnly";
+
+  public enum Action {
+    INDEX, METADATA_ONLY, SKIP
+  }
+
+  private static final String ZIP = "application/zip";
+  private static final String OLE2 = "application/x-ole-storage";
+  private static final String MP4 = "video/mp4";
+
+  private static final List<Magic> MAGICS = new ArrayList<Magic>();
+  private static final Map<String, String> EXTENSIONS = new HashMap<String, String>();
+
+  static {
+    // video
+    brand("video/mp4", "M4V ", "M4VP");
+    brand("video/quicktime", "qt  ");
+    brand("video/3gpp", "3gp");
+    brand("video/3gpp2", "3g2");
+    brand("audio/mp4", "M4A ", "M4B ", "M4P ", "F4A ");
+    brand("image/heic", "heic", "heix", "hevc", "heim", "heis");
+    brand("image/heif", "mif1", "msf1");
+    brand("image/avif", "avif", "avis");
+    magic(MP4, 4, "ftyp");
+    magic("video/webm", 0, 0x1A, 0x45, 0xDF, 0xA3);
+    magic("video/x-flv", 0, "FLV");
+    magic("video/mpeg", 0, 0x00, 0x00, 0x01, 0xBA);
+    magic("video/mpeg", 0, 0x00, 0x00, 0x01, 0xB3);
+    magic("video/x-ms-asf", 0, 0x30, 0x26, 0xB2, 0x75, 0x8E, 0x66, 0xCF, 0x11);
+    // audio
+    magic("audio/mpeg", 0, "ID3");
+    magic("audio/mpeg", 0, 0xFF, 0xFB);
+    magic("audio/ogg", 0, "OggS");
+    magic("audio/flac", 0, "fLaC");
+    // images
+    magic("image/jpeg", 0, 0xFF, 0xD8, 0xFF);
+    magic("image/png", 0, 0x89, 'P', 'N', 'G');
+    magic("image/gif", 0, "GIF8");
+    // archives
+    magic(ZIP, 0, 'P', 'K', 0x03, 0x04);
+    magic("application/gzip", 0, 0x1F, 0x8B);
+    magic("application/x-bzip2", 0, "BZh");
+    magic("application/x-xz", 0, 0xFD, '7', 'z', 'X', 'Z', 0x00);
+    magic("application/x-7z-compressed", 0, '7', 'z', 0xBC, 0xAF, 0x27, 0x1C);
+    magic("application/x-rar-compressed", 0, "Rar!");
+    magic("application/x-tar", 257, "ustar");
+    // executables
+    magic("application/x-executable", 0, 0x7F, 'E', 'L', 'F');
+    magic("application/x-msdownload", 0, "MZ");
+    magic("application/x-mach-o", 0, 0xFE, 0xED, 0xFA, 0xCE);
+    magic("application/x-mach-o", 0, 0xFE, 0xED, 0xFA, 0xCF);
+    magic("application/x-mach-o", 0, 0xCE, 0xFA, 0xED, 0xFE);
+    magic("application/x-mach-o", 0, 0xCF, 0xFA, 0xED, 0xFE);
+    magic("application/java-vm", 0, 0xCA, 0xFE, 0xBA, 0xBE);
+    // documents
+    magic("application/pdf", 0, "%PDF");
+    magic(OLE2, 0, 0xD0, 0xCF, 0x11, 0xE0, 0xA1, 0xB1, 0x1A, 0xE1);
+
+    extensions(MP4, "mp4", "m4v");
+    extensions("video/quicktime", "mov");
+    extensions("video/x-msvideo", "avi");
+    extensions("video/x-matroska", "mkv");
+    extensions("video/webm", "webm");
+    extensions("video/x-flv", "flv");
+    extensions("video/x-ms-asf", "wmv", "asf");
+    extensions("video/mpeg", "mpg", "mpeg");
+    extensions("video/3gpp", "3gp");
+    extensions("video/3gpp2", "3g2");
+    extensions("audio/mpeg", "mp3");
+    extensions("audio/mp4", "m4a", "m4b", "aac");
+    extensions("audio/x-wav", "wav");
+    extensions("audio/flac", "flac");
+    extensions("audio/ogg", "ogg", "oga");
+    extensions("image/jpeg", "jpg", "jpeg");
+    extensions("image/png", "png");
+    extensions("image/gif", "gif");
+    extensions("image/heic", "heic");
+    extensions("image/heif", "heif");
+    extensions("image/avif", "avif");
+    extensions(ZIP, "zip");
+    extensions("application/gzip", "gz", "tgz");
+    extensions("application/x-bzip2", "bz2");
+    extensions("application/x-xz", "xz");
+    extensions("application/x-7z-compressed", "7z");
+    extensions("application/x-rar-compressed", "rar");
+    extensions("application/x-tar", "tar");
+    extensions("application/x-iso9660-image", "iso");
+    extensions("application/java-archive", "jar", "war", "ear");
+    extensions("application/x-executable", "bin");
+    extensions("application/x-msdownload", "exe", "dll");
+    extensions("application/x-msi", "msi");
+    extensions("application/x-sharedlib", "so", "dylib");
+    extensions("application/java-vm", "class");
+    extensions("application/pdf", "pdf");
+    extensions("application/msword", "doc");
+    extensions("application/vnd.ms-excel", "xls");
+    extensions("application/vnd.ms-powerpoint", "ppt");
+    extensions("application/vnd.openxmlformats-officedocument.wordprocessingml.document", "docx");
+    extensions("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet", "xlsx");
+    extensions("application/vnd.openxmlformats-officedocument.presentationml.presentation", "pptx");
+    extensions("application/vnd.oasis.opendocument.text", "odt");
+    extensions("application/vnd.oasis.opendocument.spreadsheet", "ods");
+    extensions("application/vnd.oasis.opendocument.presentation", "odp");
+    extensions("application/epub+zip", "epub");
+  }
+
+  private final String[] skipTypes;
+  private final String[] metadataOnlyTypes;
+
+  public ContentSniffer(Configuration conf) {
+    this.skipTypes = types(conf, SKIP_TYPES);
+    this.metadataOnlyTypes = types(conf, METADATA_ONLY_TYPES);
+  }
+
+  /**
+   * @return false if no type is configured, in which case every file is indexed
+   */
+  public boolean isEnabled() {
+    return skipTypes.length > 0 || metadataOnlyTypes.length > 0;
+  }
+
+  /**
+   * @param head   the first bytes of the file
+   * @param name   the name or the path of the file, null if unknown
+   * @return the MIME type of the file, null if unknown
+   */
+  public String detect(byte[] head, int offset, int length, String name) {
+    String type = null;
+    for (Magic magic : MAGICS) {
+      if (magic.matches(head, offset, length)) {
+        type = magic.type;
+        break;
+      }
+    }
+    if (type == null || type.equals(ZIP) || type.equals(OLE2) || type.equals(MP4)) {
+      String byExtension = EXTENSIONS.get(extension(name));
+      if (byExtension != null) {
+        type = byExtension;
+      }
+    }
+    return type;
+  }
+
+  /**
+   * @return what to do with a file of the type, counting the skipped and metadata only files
+   */
+  public Action actionFor(String type, String id, Reporter reporter) {
+    if (type == null) {
+      return Action.INDEX;
+    }
+    if (matches(skipTypes, type)) {
+      log.debug("Skipping {} of type {}", id, type);
+      reporter.incrCounter(COUNTER_GROUP, SKIPPED, 1);
+      return Action.SKIP;
+    }
+    if (matches(metadataOnlyTypes, type)) {
+      log.debug("Indexing the metadata only of {} of type {}", id, type);
+      reporter.incrCounter(COUNTER_GROUP, METADATA_ONLY, 1);
+      return Action.METADATA_ONLY;
+    }
+    return Action.INDEX;
+  }
+
+  private static boolean matches(String[] patterns, String type) {
+    for (String pattern : patterns) {
+      if (pattern.equals("*") || pattern.equals(type)) {
+        return true;
+      }
+      if (pattern.endsWith("/*") && type.regionMatches(0, pattern, 0, pattern.length() - 1)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static String[] types(Configuration conf, String key) {
+    String[] types = conf.getTrimmedStrings(key);
+    for (int i = 0; i < types.length; i++) {
+      types[i] = types[i].toLowerCase(Locale.ROOT);
+    }
+    return types;
+  }
+
+  /**
+   * @return the lower case extension of the last segment of the name, "" if it has none
+   */
+  static String extension(String name) {
+    if (name == null) {
+      return "";
+    }
+    int end = name.length();
+    // ignore the query and fragment of URLs
+    for (int i = 0; i < name.length(); i++) {
+      char c = name.charAt(i);
+      if (c == '?' || c == '#') {
+        end = i;
+        break;
+      }
+    }
+    int dot = name.lastIndexOf('.', end - 1);
+    if (dot < 0 || name.lastIndexOf('/', end - 1) > dot) {
+      return "";
+    }
+    return name.substring(dot + 1, end).toLowerCase(Locale.ROOT);
+  }
+
+  private static void magic(String type, int offset, String bytes) {
+    MAGICS.add(new Magic(type, offset, bytes.getBytes(StandardCharsets.US_ASCII)));
+  }
+
+  private static void magic(String type, int offset, int... values) {
+    byte[] bytes = new byte[values.length];
+    for (int i = 0; i < values.length; i++) {
+      bytes[i] = (byte) values[i];
+    }
+    MAGICS.add(new Magic(type, offset, bytes));
+  }
+
+  /**
+   * An ISO base media file of the major brand, or of the brands starting with it
+   */
+  private static void brand(String type, String... brands) {
+    for (String brand : brands) {
+      magic(type, 4, "ftyp" + brand);
+    }
+  }
+
+  private static void extensions(String type, String... extensions) {
+    for (String extension : extensions) {
+      EXTENSIONS.put(extension, type);
+    }
+  }
+
+  private static class Magic {
+    final String type;
+    final int offset;
+    final byte[] bytes;
+
+    Magic(String type, int offset, byte[] bytes) {
+      this.type = type;
+      this.offset = offset;
+      this.bytes = bytes;
+    }
+
+    boolean matches(byte[] head, int headOffset, int headLength) {
+      if (offset + bytes.length > headLength) {
+        return false;
+      }
+      for (int i = 0; i < bytes.length; i++) {
+        if (head[headOffset + offset + i] != bytes[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+}
@@ -0,0 +1,167 @@
+package com.lucidworks.hadoop.ingest.util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Turns grok expressions into {@link java.util.regex} patterns. Pattern definitions use the
+ * Logstash patterns file format (one "NAME regex" per line); the base Logstash patterns are bundled
+ * as classpath resources.
+ * <p/>
+ * %{NAME:field} and %{NAME:field:type} become named groups, %{NAME} a non-capturing group. Named
+ * groups written directly in a definition ((?&lt;field&gt;...)) are captured as well. Java group
+ * names are restricted to letters and digits, so every capture gets a generated group name and
+ * the field name is kept on the side.
+ */
+public class GrokCompiler {
+
+  public static final String[] DEFAULT_PATTERN_RESOURCES = {
+      "grok-patterns/grok-patterns",
+      "grok-patterns/firewalls"
+  };
+
+  private static final Pattern REFERENCE = Pattern.compile("%\\{(\\w+)(?::([^:}]+))?(?::(\\w+))?\\}");
+  private static final Pattern NAMED_GROUP = Pattern.compile("(?<!\\\\)\\(\\?<([A-Za-z_][^>]*)>");
+  private static final Pattern DEFINITION = Pattern.compile("^(\\w+)\\s+(.*)$");
+
+  private final Map<String, String> definitions = new HashMap<>();
+
+  /**
+   * @return a compiler that knows the bundled Logstash patterns
+   */
+  public static GrokCompiler withDefaultPatterns() {
+    GrokCompiler compiler = new GrokCompiler();
+    for (String resource : DEFAULT_PATTERN_RESOURCES) {
+      InputStream in = GrokCompiler.class.getClassLoader().getResourceAsStream(resource);
+      if (in == null) {
+        throw new RuntimeException("Resource not found " + resource);
+      }
+      try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+        compiler.addPatterns(reader);
+      } catch (IOException e) {
+        throw new RuntimeException("Unable to read grok patterns from " + resource, e);
+      }
+    }
+    return compiler;
+  }
+
+  public void addPattern(String name, String definition) {
+    definitions.put(name, definition);
+  }
+
+  /**
+   * Add the definitions of a Logstash patterns file. Blank lines and lines starting with # are
+   * ignored; a later definition of the same name replaces the earlier one.
+   */
+  public void addPatterns(String patterns) {
+    try {
+      addPatterns(new BufferedReader(new StringReader(patterns)));
+    } catch (IOException e) {
+      throw new RuntimeException(e);// can't happen for a StringReader
+    }
+  }
+
+  private void addPatterns(BufferedReader reader) throws IOException {
+    String line;
+    while ((line = reader.readLine()) != null) {
+      String trimmed = line.trim();
+      if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+        continue;
+      }
+      Matcher matcher = DEFINITION.matcher(trimmed);
+      if (!matcher.matches()) {
+        throw new IllegalArgumentException("Invalid grok pattern definition: " + line);
+      }
+      addPattern(matcher.group(1), matcher.group(2));
+    }
+  }
+
+  public boolean hasPattern(String name) {
+    return definitions.containsKey(name);
+  }
+
+  /**
+   * Expand and compile a grok expression
+   *
+   * @throws IllegalArgumentException if the expression references an unknown or recursive pattern,
+   *                                  or does not expand into a valid regex
+   */
+  public GrokPattern compile(String expression) {
+    List<String> groups = new ArrayList<>();
+    List<String> fields = new ArrayList<>();
+    List<String> types = new ArrayList<>();
+    String regex = expand(expression, groups, fields, types, new ArrayDeque<String>());
+    Pattern pattern;
+    try {
+      pattern = Pattern.compile(regex);
+    } catch (PatternSyntaxException e) {
+      throw new IllegalArgumentException("Grok expression '" + expression + "' is not a valid regex: "
+          + e.getMessage(), e);
+    }
+    return new GrokPattern(expression, pattern, groups.toArray(new String[0]),
+        fields.toArray(new String[0]), types.toArray(new String[0]));
+  }
+
+  private String expand(String expression, List<String> groups, List<String> fields, List<String> types,
+                        Deque<String> expanding) {
+    // rename the regex named groups first, the ones added while expanding are already valid
+    StringBuilder renamed = new StringBuilder();
+    Matcher named = NAMED_GROUP.matcher(expression);
+    int last = 0;
+    while (named.find()) {
+      renamed.append(expression, last, named.start());
+      renamed.append("(?<").append(addCapture(named.group(1), null, groups, fields, types)).append('>');
+      last = named.end();
+    }
+    renamed.append(expression, last, expression.length());
+
+    StringBuilder result = new StringBuilder();
+    Matcher reference = REFERENCE.matcher(renamed);
+    last = 0;
+    while (reference.find()) {
+      result.append(renamed, last, reference.start());
+      String name = reference.group(1);
+      String definition = definitions.get(name);
+      if (definition == null) {
+        throw new IllegalArgumentException("Unknown grok pattern %{" + name + "} in: " + expression);
+      }
+      if (expanding.contains(name)) {
+        throw new IllegalArgumentException("Grok pattern %{" + name + "} references itself: " + expanding);
+      }
+      expanding.push(name);
+      String inner = expand(definition, groups, fields, types, expanding);
+      expanding.pop();
+      if (reference.group(2) != null) {
+        String group = addCapture(reference.group(2), reference.group(3), groups, fields, types);
+        result.append("(?<").append(group).append('>').append(inner).append(')');
+      } else {
+        result.append("(?:").append(inner).append(')');
+      }
+      last = reference.end();
+    }
+    result.append(renamed, last, renamed.length());
+    return result.toString();
+  }
+
+  private static String addCapture(String field, String type, List<String> groups, List<String> fields,
+                                   List<String> types) {
+    String group = "grok" + groups.size();
+    groups.add(group);
+    fields.add(field);
+    types.add(type);
+    return group;
+  }
+}
@@ -0,0 +1,228 @@
+package com.lucidworks.hadoop.ingest.util;
+
+import com.lucidworks.hadoop.io.LWDocument;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Native equivalent of a Logstash grok filter: matches a line against the compiled patterns and
+ * adds the captures straight to the document.
+ * <p/>
+ * Supported settings: match (on the message field), add_field, add_tag, tag_on_failure,
+ * break_on_match, keep_empty_captures and patterns_dir (read by the job fixture). Other filter
+ * plugins (kv, mutate, ...) are not supported and are skipped with a warning.
+ * <p/>
+ * An instance keeps one Matcher per pattern and is not thread safe.
+ */
+public class GrokFilter {
+  private static transient Logger log = LoggerFactory.getLogger(GrokFilter.class);
+
+  public static final String GROK_PLUGIN = "grok";
+  public static final String MESSAGE_FIELD = "message";
+  public static final String TAGS_FIELD = "tags";
+  public static final String GROK_PARSE_FAILURE = "_grokparsefailure";
+
+  private static final Pattern FIELD_REFERENCE = Pattern.compile("%\\{([^}]+)\\}");
+
+  private final GrokPattern[] patterns;
+  private final Matcher[] matchers;
+  private final String[] addFieldNames;
+  private final String[] addFieldValues;
+  private final List<String> addTags;
+  private final List<String> tagOnFailure;
+  private final boolean breakOnMatch;
+  private final boolean keepEmptyCaptures;
+
+  public GrokFilter(GrokCompiler compiler, LogstashConfigParser.Plugin plugin) {
+    List<GrokPattern> compiled = new ArrayList<>();
+    for (String expression : getMatchExpressions(plugin)) {
+      compiled.add(compiler.compile(expression));
+    }
+    if (compiled.isEmpty()) {
+      throw new IllegalArgumentException("grok filter without a match on the " + MESSAGE_FIELD + " field");
+    }
+    patterns = compiled.toArray(new GrokPattern[compiled.size()]);
+    matchers = new Matcher[patterns.length];
+    for (int i = 0; i < patterns.length; i++) {
+      matchers[i] = patterns[i].matcher("");
+    }
+
+    List<String> pairs = new ArrayList<>();
+    for (Object addField : plugin.getAll("add_field")) {
+      pairs.addAll(toPairs(addField));
+    }
+    addFieldNames = new String[pairs.size() / 2];
+    addFieldValues = new String[pairs.size() / 2];
+    for (int i = 0; i < addFieldNames.length; i++) {
+      addFieldNames[i] = pairs.get(2 * i);
+      addFieldValues[i] = pairs.get(2 * i + 1);
+    }
+
+    addTags = toList(plugin.get("add_tag"), Collections.<String>emptyList());
+    tagOnFailure = toList(plugin.get("tag_on_failure"), Collections.singletonList(GROK_PARSE_FAILURE));
+    breakOnMatch = !"false".equals(String.valueOf(plugin.get("break_on_match")));
+    keepEmptyCaptures = "true".equals(String.valueOf(plugin.get("keep_empty_captures")));
+  }
+
+  /**
+   * Compile the grok filters of a Logstash configuration
+   *
+   * @param additionalPatterns contents of the patterns_dir files, in the Logstash patterns format
+   */
+  public static List<GrokFilter> fromConfiguration(String configuration, List<String> additionalPatterns) {
+    GrokCompiler compiler = GrokCompiler.withDefaultPatterns();
+    for (String patterns : additionalPatterns) {
+      compiler.addPatterns(patterns);
+    }
+    List<GrokFilter> filters = new ArrayList<>();
+    for (LogstashConfigParser.Plugin plugin : LogstashConfigParser.parseFilters(configuration)) {
+      if (GROK_PLUGIN.equals(plugin.getName())) {
+        filters.add(new GrokFilter(compiler, plugin));
+      } else {
+        log.warn("Filter '{}' is not supported by the native grok engine and will be ignored", plugin.getName());
+      }
+    }
+    return filters;
+  }
+
+  /**
+   * @return the patterns_dir entries of every grok filter of a Logstash configuration
+   */
+  public static List<String> getPatternsDirs(String configuration) {
+    List<String> dirs = new ArrayList<>();
+    for (LogstashConfigParser.Plugin plugin : LogstashConfigParser.parseFilters(configuration)) {
+      if (GROK_PLUGIN.equals(plugin.getName())) {
+        for (Object patternsDir : plugin.getAll("patterns_dir")) {
+          dirs.addAll(toList(patternsDir, Collections.<String>emptyList()));
+        }
+      }
+    }
+    return dirs;
+  }
+
+  /**
+   * Match the line and add the captures, add_field and add_tag values to the document, or the
+   * tag_on_failure tags if no pattern matches
+   *
+   * @return true if at least one pattern matched
+   */
+  public boolean apply(String line, LWDocument document) {
+    int lastMatch = -1;
+    for (int i = 0; i < patterns.length; i++) {
+      Matcher matcher = matchers[i].reset(line);
+      if (!matcher.find()) {
+        continue;
+      }
+      lastMatch = i;
+      GrokPattern pattern = patterns[i];
+      for (int capture = 0; capture < pattern.getFieldCount(); capture++) {
+        Object value = pattern.getValue(matcher, capture);
+        if (value != null && (keepEmptyCaptures || !"".equals(value))) {
+          document.addField(pattern.getField(capture), value);
+        }
+      }
+      if (breakOnMatch) {
+        break;
+      }
+    }
+
+    if (lastMatch < 0) {
+      for (String tag : tagOnFailure) {
+        document.addField(TAGS_FIELD, tag);
+      }
+      return false;
+    }
+    for (int i = 0; i < addFieldNames.length; i++) {
+      document.addField(addFieldNames[i], format(addFieldValues[i], line, lastMatch));
+    }
+    for (String tag : addTags) {
+      document.addField(TAGS_FIELD, tag);
+    }
+    return true;
+  }
+
+  /**
+   * Replace the %{field} references of an add_field value, resolved against the message and the
+   * captures of the last matching pattern. Unresolved references are kept as is, like Logstash does.
+   */
+  private String format(String template, String line, int match) {
+    if (template.indexOf("%{") < 0) {
+      return template;
+    }
+    StringBuilder result = new StringBuilder();
+    Matcher reference = FIELD_REFERENCE.matcher(template);
+    int last = 0;
+    while (reference.find()) {
+      result.append(template, last, reference.start());
+      String field = reference.group(1);
+      Object value = MESSAGE_FIELD.equals(field) ? line : patterns[match].getValue(matchers[match], field);
+      result.append(value != null ? value.toString() : reference.group());
+      last = reference.end();
+    }
+    result.append(template, last, template.length());
+    return result.toString();
+  }
+
+  private static List<String> getMatchExpressions(LogstashConfigParser.Plugin plugin) {
+    List<String> expressions = new ArrayList<>();
+    for (Object match : plugin.getAll("match")) {
+      List<String> pairs = toPairs(match);
+      for (int i = 0; i + 1 < pairs.size(); i += 2) {
+        if (MESSAGE_FIELD.equals(pairs.get(i))) {
+          expressions.add(pairs.get(i + 1));
+        } else {
+          log.warn("The native grok engine only matches the {} field, ignoring match on {}", MESSAGE_FIELD,
+              pairs.get(i));
+        }
+      }
+    }
+    // Logstash 1.1 style: pattern => "..."
+    for (Object pattern : plugin.getAll("pattern")) {
+      expressions.addAll(toList(pattern, Collections.<String>emptyList()));
+    }
+    return expressions;
+  }
+
+  /**
+   * Flatten ["field", "value", ...] or {"field" => "value" or ["value", ...]} into name/value pairs
+   */
+  private static List<String> toPairs(Object setting) {
+    List<String> pairs = new ArrayList<>();
+    if (setting instanceof Map) {
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) setting).entrySet()) {
+        for (String value : toList(entry.getValue(), Collections.<String>emptyList())) {
+          pairs.add(entry.getKey().toString());
+          pairs.add(value);
+        }
+      }
+    } else if (setting instanceof List) {
+      List<?> values = (List<?>) setting;
+      for (int i = 0; i + 1 < values.size(); i += 2) {
+        pairs.add(values.get(i).toString());
+        pairs.add(values.get(i + 1).toString());
+      }
+    }
+    return pairs;
+  }
+
+  private static List<String> toList(Object setting, List<String> defaultValue) {
+    if (setting == null) {
+      return defaultValue;
+    }
+    List<String> values = new ArrayList<>();
+    if (setting instanceof List) {
+      for (Object value : (List<?>) setting) {
+        values.add(value.toString());
+      }
+    } else {
+      values.add(setting.toString());
+    }
+    return values;
+  }
+}
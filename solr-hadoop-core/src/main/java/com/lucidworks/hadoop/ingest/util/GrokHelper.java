@@ -76,11 +76,23 @@ public class GrokHelper {
 
     RubyArray rubyArray = (RubyArray) array;
     int size = rubyArray.size();
+    List<String> patternDirs = new ArrayList<String>(size);
     for (int counter = 0; counter < size; counter++) {
+      patternDirs.add(rubyArray.get(counter).toString());
+    }
+    addPatternDirsToDC(patternDirs, conf);
+  }
+
+  /**
+   * Add every pattern file found in the given patterns_dir entries (files or directories) to the
+   * distributed cache and list them in {@link GrokIngestMapper#ADDITIONAL_PATTERNS}
+   */
+  public static void addPatternDirsToDC(List<String> patternDirs, JobConf conf) throws Exception {
+    for (String patternDir : patternDirs) {
       // Adding the prefix "file://" because the user will use the same LogStash
       // configuration file, and this configuration assumes that the additional
       // patterns are in local file system
-      String path = "file://" + rubyArray.get(counter).toString();
+      String path = "file://" + patternDir;
 
       List<Path> filesToExplore = new ArrayList<Path>();
       try {
@@ -0,0 +1,93 @@
+package com.lucidworks.hadoop.ingest.util;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A grok expression compiled by {@link GrokCompiler} into a single {@link Pattern}. Every
+ * named capture of the expression (%{PATTERN:field} or (?&lt;field&gt;...)) is a named group of
+ * the regex, so matching needs no script engine and no further expansion.
+ */
+public class GrokPattern {
+
+  public static final String INT_TYPE = "int";
+  public static final String FLOAT_TYPE = "float";
+
+  private final String expression;
+  private final Pattern regex;
+  private final String[] groups;
+  private final String[] fields;
+  private final String[] types;
+
+  GrokPattern(String expression, Pattern regex, String[] groups, String[] fields, String[] types) {
+    this.expression = expression;
+    this.regex = regex;
+    this.groups = groups;
+    this.fields = fields;
+    this.types = types;
+  }
+
+  public String getExpression() {
+    return expression;
+  }
+
+  public Pattern getRegex() {
+    return regex;
+  }
+
+  public Matcher matcher(CharSequence input) {
+    return regex.matcher(input);
+  }
+
+  /**
+   * @return the number of named captures
+   */
+  public int getFieldCount() {
+    return fields.length;
+  }
+
+  public String getField(int capture) {
+    return fields[capture];
+  }
+
+  /**
+   * @return the value of a capture for the last match of the matcher, converted to its declared
+   * type (%{PATTERN:field:int}), or null if the capture did not participate in the match
+   */
+  public Object getValue(Matcher matcher, int capture) {
+    String value = matcher.group(groups[capture]);
+    if (value == null || types[capture] == null) {
+      return value;
+    }
+    try {
+      if (INT_TYPE.equals(types[capture])) {
+        return Integer.valueOf(value);
+      } else if (FLOAT_TYPE.equals(types[capture])) {
+        return Float.valueOf(value);
+      }
+    } catch (NumberFormatException e) {
+      // keep the raw value, as Logstash does
+    }
+    return value;
+  }
+
+  /**
+   * @return the first non null value captured into the field, or null
+   */
+  public Object getValue(Matcher matcher, String field) {
+    for (int i = 0; i < fields.length; i++) {
+      if (fields[i].equals(field)) {
+        Object value = getValue(matcher, i);
+        if (value != null) {
+          return value;
+        }
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public String toString() {
+    return expression;
+  }
+}
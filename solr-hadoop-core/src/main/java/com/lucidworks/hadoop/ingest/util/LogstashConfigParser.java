@@ -0,0 +1,286 @@
+package com.lucidworks.hadoop.ingest.util;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads the subset of the Logstash configuration language needed to pull the filter plugins, and
+ * their settings, out of the same file the Logstash/JRuby engine is given.
+ * <p/>
+ * Values are returned as Strings (quoted strings keep their raw content, so regular expressions are
+ * not unescaped), Lists for arrays and Maps for hashes. Conditionals are not evaluated; the plugins
+ * inside them are skipped.
+ */
+public class LogstashConfigParser {
+  private static transient Logger log = LoggerFactory.getLogger(LogstashConfigParser.class);
+
+  public static final String FILTER_SECTION = "filter";
+
+  private final String config;
+  private int pos = 0;
+
+  private LogstashConfigParser(String config) {
+    this.config = config;
+  }
+
+  /**
+   * @return the plugins of every filter section, in order of appearance
+   */
+  public static List<Plugin> parseFilters(String config) {
+    LogstashConfigParser parser = new LogstashConfigParser(config);
+    List<Plugin> filters = new ArrayList<>();
+    while (parser.skipWhitespace()) {
+      String section = parser.readBareword();
+      parser.expect('{');
+      List<Plugin> plugins = parser.readPlugins();
+      if (FILTER_SECTION.equals(section)) {
+        filters.addAll(plugins);
+      }
+    }
+    return filters;
+  }
+
+  private List<Plugin> readPlugins() {
+    List<Plugin> plugins = new ArrayList<>();
+    while (true) {
+      requireMore();
+      if (peek() == '}') {
+        pos++;
+        return plugins;
+      }
+      String name = readBareword();
+      if ("if".equals(name) || "else".equals(name)) {
+        log.warn("Conditionals are not supported, skipping the '{}' block at offset {}", name, pos);
+        skipConditional();
+        continue;
+      }
+      expect('{');
+      Plugin plugin = new Plugin(name);
+      while (true) {
+        requireMore();
+        if (peek() == '}') {
+          pos++;
+          break;
+        }
+        String key = readKey();
+        expect('=');
+        expect('>');
+        plugin.add(key, readValue());
+      }
+      plugins.add(plugin);
+    }
+  }
+
+  private Object readValue() {
+    requireMore();
+    char c = peek();
+    if (c == '"' || c == '\'') {
+      return readString();
+    } else if (c == '[') {
+      pos++;
+      List<Object> values = new ArrayList<>();
+      while (true) {
+        requireMore();
+        if (peek() == ']') {
+          pos++;
+          return values;
+        }
+        if (peek() == ',') {
+          pos++;
+          continue;
+        }
+        values.add(readValue());
+      }
+    } else if (c == '{') {
+      pos++;
+      Map<String, Object> values = new LinkedHashMap<>();
+      while (true) {
+        requireMore();
+        if (peek() == '}') {
+          pos++;
+          return values;
+        }
+        if (peek() == ',') {
+          pos++;
+          continue;
+        }
+        String key = readKey();
+        expect('=');
+        expect('>');
+        values.put(key, readValue());
+      }
+    }
+    return readBareword();
+  }
+
+  private String readKey() {
+    requireMore();
+    char c = peek();
+    return c == '"' || c == '\'' ? readString() : readBareword();
+  }
+
+  private String readString() {
+    char quote = config.charAt(pos++);
+    int start = pos;
+    while (pos < config.length()) {
+      char c = config.charAt(pos);
+      if (c == '\\') {
+        pos += 2;
+      } else if (c == quote) {
+        return config.substring(start, pos++);
+      } else {
+        pos++;
+      }
+    }
+    throw error("Unterminated string");
+  }
+
+  private String readBareword() {
+    requireMore();
+    int start = pos;
+    while (pos < config.length() && isBarewordChar(config.charAt(pos))) {
+      pos++;
+    }
+    if (start == pos) {
+      throw error("Unexpected character '" + config.charAt(pos) + "'");
+    }
+    return config.substring(start, pos);
+  }
+
+  private static boolean isBarewordChar(char c) {
+    return Character.isLetterOrDigit(c) || c == '_' || c == '-' || c == '.' || c == '@' || c == '+';
+  }
+
+  /**
+   * Skip the condition and the body of an if/else-if/else block
+   */
+  private void skipConditional() {
+    // the condition runs up to the opening brace of the body
+    while (true) {
+      requireMore();
+      char c = peek();
+      if (c == '"' || c == '\'') {
+        readString();
+      } else if (c == '{') {
+        break;
+      } else {
+        pos++;
+      }
+    }
+    int depth = 0;
+    do {
+      requireMore();
+      char c = peek();
+      if (c == '"' || c == '\'') {
+        readString();
+        continue;
+      }
+      if (c == '{') {
+        depth++;
+      } else if (c == '}') {
+        depth--;
+      }
+      pos++;
+    } while (depth > 0);
+  }
+
+  private void expect(char expected) {
+    requireMore();
+    if (config.charAt(pos) != expected) {
+      throw error("Expected '" + expected + "' but found '" + config.charAt(pos) + "'");
+    }
+    pos++;
+  }
+
+  private char peek() {
+    return config.charAt(pos);
+  }
+
+  private void requireMore() {
+    if (!skipWhitespace()) {
+      throw error("Unexpected end of configuration");
+    }
+  }
+
+  /**
+   * Skip whitespace and comments
+   *
+   * @return true if there is more to read
+   */
+  private boolean skipWhitespace() {
+    while (pos < config.length()) {
+      char c = config.charAt(pos);
+      if (c == '#') {
+        while (pos < config.length() && config.charAt(pos) != '\n') {
+          pos++;
+        }
+      } else if (Character.isWhitespace(c)) {
+        pos++;
+      } else {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private IllegalArgumentException error(String message) {
+    return new IllegalArgumentException(message + " at offset " + pos + " of the Logstash configuration");
+  }
+
+  /**
+   * A plugin and its settings. A setting may be repeated (e.g. add_field), so settings are kept in
+   * order of appearance.
+   */
+  public static class Plugin {
+    private final String name;
+    private final List<String> keys = new ArrayList<>();
+    private final List<Object> values = new ArrayList<>();
+
+    public Plugin(String name) {
+      this.name = name;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public void add(String key, Object value) {
+      keys.add(key);
+      values.add(value);
+    }
+
+    /**
+     * @return the last value of the setting, or null if it is not set
+     */
+    public Object get(String key) {
+      for (int i = keys.size() - 1; i >= 0; i--) {
+        if (keys.get(i).equals(key)) {
+          return values.get(i);
+        }
+      }
+      return null;
+    }
+
+    /**
+     * @return every value of the setting, in order of appearance
+     */
+    public List<Object> getAll(String key) {
+      List<Object> result = new ArrayList<>();
+      for (int i = 0; i < keys.size(); i++) {
+        if (keys.get(i).equals(key)) {
+          result.add(values.get(i));
+        }
+      }
+      return result;
+    }
+
+    @Override
+    public String toString() {
+      return "Plugin{name=" + name + ", settings=" + keys + "}";
+    }
+  }
+}
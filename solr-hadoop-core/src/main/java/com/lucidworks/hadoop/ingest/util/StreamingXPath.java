@@ -0,0 +1,272 @@
+package com.lucidworks.hadoop.ingest.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The subset of XPath that can be evaluated against the path of open elements of a streaming
+ * parser, without looking ahead: child (/) and descendant (//) steps, name tests and *, attribute
+ * predicates ([@name] and [@name='value']) and a final attribute step (@name).
+ * <p/>
+ * Element names are compared as written in the document, prefix included.
+ */
+public class StreamingXPath {
+
+  private final String expression;
+  private final boolean absolute;
+  private final Step[] steps;
+  private final String attribute;
+
+  private StreamingXPath(String expression, boolean absolute, Step[] steps, String attribute) {
+    this.expression = expression;
+    this.absolute = absolute;
+    this.steps = steps;
+    this.attribute = attribute;
+  }
+
+  /**
+   * @throws IllegalArgumentException if the expression is not in the supported subset
+   */
+  public static StreamingXPath compile(String expression) {
+    return new Parser(expression).parse();
+  }
+
+  public boolean isAbsolute() {
+    return absolute;
+  }
+
+  /**
+   * @return the name of the selected attribute, or null if the expression selects elements
+   */
+  public String getAttribute() {
+    return attribute;
+  }
+
+  /**
+   * Does the expression select the last element of the path?
+   *
+   * @param path    the open elements, from the root element down
+   * @param context the number of elements of the path making the context node of a relative
+   *                expression, 0 for the document
+   */
+  public boolean matches(List<PathElement> path, int context) {
+    return matches(0, absolute ? 0 : context, path);
+  }
+
+  private boolean matches(int step, int element, List<PathElement> path) {
+    if (step == steps.length) {
+      return element == path.size();
+    }
+    if (element == path.size()) {
+      return false;
+    }
+    Step current = steps[step];
+    if (!current.descendant) {
+      return current.test(path.get(element)) && matches(step + 1, element + 1, path);
+    }
+    for (int i = element; i < path.size(); i++) {
+      if (current.test(path.get(i)) && matches(step + 1, i + 1, path)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public String toString() {
+    return expression;
+  }
+
+  /**
+   * An open element: its name and attributes
+   */
+  public static class PathElement {
+    private final String name;
+    private final String[] attributeNames;
+    private final String[] attributeValues;
+
+    public PathElement(String name, String[] attributeNames, String[] attributeValues) {
+      this.name = name;
+      this.attributeNames = attributeNames;
+      this.attributeValues = attributeValues;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public int getAttributeCount() {
+      return attributeNames.length;
+    }
+
+    public String getAttributeName(int i) {
+      return attributeNames[i];
+    }
+
+    public String getAttributeValue(int i) {
+      return attributeValues[i];
+    }
+
+    /**
+     * @return the value of the attribute, null if the element doesn't have it
+     */
+    public String getAttribute(String attributeName) {
+      for (int i = 0; i < attributeNames.length; i++) {
+        if (attributeNames[i].equals(attributeName)) {
+          return attributeValues[i];
+        }
+      }
+      return null;
+    }
+  }
+
+  private static class Step {
+    final boolean descendant;
+    final String name;// null for *
+    final List<String[]> predicates = new ArrayList<>();// name and value, value null to only test presence
+
+    Step(boolean descendant, String name) {
+      this.descendant = descendant;
+      this.name = name;
+    }
+
+    boolean test(PathElement element) {
+      if (name != null && !name.equals(element.getName())) {
+        return false;
+      }
+      for (String[] predicate : predicates) {
+        String value = element.getAttribute(predicate[0]);
+        if (value == null || (predicate[1] != null && !predicate[1].equals(value))) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  private static class Parser {
+    private final String expression;
+    private int pos = 0;
+
+    Parser(String expression) {
+      this.expression = expression.trim();
+    }
+
+    StreamingXPath parse() {
+      List<Step> steps = new ArrayList<>();
+      String attribute = null;
+      boolean absolute = peek('/');
+      boolean descendant = false;
+      if (absolute) {
+        pos++;
+        descendant = accept('/');
+        if (pos == expression.length() && !descendant) {
+          // "/" is the document, never an element
+          return new StreamingXPath(expression, true, new Step[] {new Step(false, "/")}, null);
+        }
+      }
+      while (true) {
+        if (accept('@')) {
+          if (descendant) {
+            throw unsupported("descendant attributes");
+          }
+          attribute = name();
+          break;
+        }
+        if (accept('.')) {
+          if (descendant || (!steps.isEmpty())) {
+            throw unsupported("self steps after the first one");
+          }
+        } else {
+          Step step = new Step(descendant, accept('*') ? null : name());
+          while (accept('[')) {
+            step.predicates.add(predicate());
+          }
+          steps.add(step);
+        }
+        if (pos == expression.length()) {
+          break;
+        }
+        expect('/');
+        descendant = accept('/');
+      }
+      if (pos != expression.length()) {
+        throw unsupported("anything after an attribute");
+      }
+      return new StreamingXPath(expression, absolute, steps.toArray(new Step[steps.size()]), attribute);
+    }
+
+    private String[] predicate() {
+      skipWhitespace();
+      if (!accept('@')) {
+        throw unsupported("predicates other than [@name] and [@name='value']");
+      }
+      String name = name();
+      String value = null;
+      skipWhitespace();
+      if (accept('=')) {
+        skipWhitespace();
+        char quote = pos < expression.length() ? expression.charAt(pos) : 0;
+        if (quote != '\'' && quote != '"') {
+          throw unsupported("unquoted predicate values");
+        }
+        int end = expression.indexOf(quote, pos + 1);
+        if (end < 0) {
+          throw new IllegalArgumentException("Unterminated string in XPath '" + expression + "'");
+        }
+        value = expression.substring(pos + 1, end);
+        pos = end + 1;
+        skipWhitespace();
+      }
+      expect(']');
+      return new String[] {name, value};
+    }
+
+    private String name() {
+      int start = pos;
+      while (pos < expression.length() && isNameChar(expression.charAt(pos), pos == start)) {
+        pos++;
+      }
+      if (pos == start) {
+        throw unsupported("'" + (pos < expression.length() ? expression.substring(pos) : "") + "'");
+      }
+      return expression.substring(start, pos);
+    }
+
+    private static boolean isNameChar(char c, boolean first) {
+      if (Character.isLetter(c) || c == '_') {
+        return true;
+      }
+      return !first && (Character.isDigit(c) || c == '-' || c == '.' || c == ':');
+    }
+
+    private boolean peek(char c) {
+      return pos < expression.length() && expression.charAt(pos) == c;
+    }
+
+    private boolean accept(char c) {
+      if (peek(c)) {
+        pos++;
+        return true;
+      }
+      return false;
+    }
+
+    private void expect(char c) {
+      if (!accept(c)) {
+        throw new IllegalArgumentException("Expected '" + c + "' at " + pos + " in XPath '" + expression + "'");
+      }
+    }
+
+    private void skipWhitespace() {
+      while (pos < expression.length() && Character.isWhitespace(expression.charAt(pos))) {
+        pos++;
+      }
+    }
+
+    private IllegalArgumentException unsupported(String what) {
+      return new IllegalArgumentException("XPath '" + expression + "' is not supported by the streaming XML engine: "
+          + what);
+    }
+  }
+}
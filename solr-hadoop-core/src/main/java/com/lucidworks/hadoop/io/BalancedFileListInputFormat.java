@@ -0,0 +1,323 @@
+package com.lucidworks.hadoop.io;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.InputFormat;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads sequence files of (file URI, file length) records, as written by
+ * {@link com.lucidworks.hadoop.ingest.DirectoryIngestMapper#expandGlob}, and splits them by the size
+ * of the files they point to rather than by the size of the list.
+ * <p/>
+ * Files are assigned largest first to the split with the fewest bytes so far, with at most
+ * {@link #MAX_SPLIT_FILES} files per split. There are enough splits for no split to go over
+ * {@link #MAX_SPLIT_BYTES} on average, and at least as many as the requested number of map tasks.
+ * The block locations of files of at least {@link #LOCALITY_MIN_BYTES} are looked up, and the hosts
+ * holding the most bytes of a split become its locations.
+ */
+public class BalancedFileListInputFormat implements InputFormat<Text, LongWritable> {
+  private static transient Logger log = LoggerFactory.getLogger(BalancedFileListInputFormat.class);
+
+  public static final String MAX_SPLIT_BYTES = "directory.split.max.bytes";
+  public static final String MAX_SPLIT_FILES = "directory.split.max.files";
+  public static final String LOCALITY_MIN_BYTES = "directory.split.locality.min.bytes";
+
+  public static final long DEFAULT_MAX_SPLIT_BYTES = 1024L * 1024 * 1024;
+  public static final int DEFAULT_MAX_SPLIT_FILES = 10000;
+  public static final long DEFAULT_LOCALITY_MIN_BYTES = 64L * 1024 * 1024;
+
+  private static final int MAX_LOCATIONS = 3;
+
+  @Override
+  public InputSplit[] getSplits(JobConf job, int numSplits) throws IOException {
+    List<String> uris = new ArrayList<>();
+    List<Long> lengths = new ArrayList<>();
+    for (Path path : FileInputFormat.getInputPaths(job)) {
+      readFileList(job, path, uris, lengths);
+    }
+    int files = uris.size();
+    if (files == 0) {
+      return new InputSplit[0];
+    }
+    long totalBytes = 0;
+    for (long length : lengths) {
+      totalBytes += length;
+    }
+
+    long maxBytes = Math.max(1, job.getLong(MAX_SPLIT_BYTES, DEFAULT_MAX_SPLIT_BYTES));
+    int maxFiles = Math.max(1, job.getInt(MAX_SPLIT_FILES, DEFAULT_MAX_SPLIT_FILES));
+    long bins = Math.max(numSplits, Math.max(ceilDiv(totalBytes, maxBytes), ceilDiv(files, maxFiles)));
+    int[] binOf = assign(lengths, (int) Math.min(bins, files), maxFiles);
+
+    List<List<Integer>> members = new ArrayList<>();
+    for (int i = 0; i < files; i++) {
+      while (members.size() <= binOf[i]) {
+        members.add(new ArrayList<Integer>());
+      }
+      members.get(binOf[i]).add(i);
+    }
+
+    long localityMinBytes = job.getLong(LOCALITY_MIN_BYTES, DEFAULT_LOCALITY_MIN_BYTES);
+    List<InputSplit> splits = new ArrayList<>();
+    for (List<Integer> bin : members) {
+      if (bin.isEmpty()) {
+        continue;
+      }
+      String[] splitUris = new String[bin.size()];
+      long[] splitLengths = new long[bin.size()];
+      Map<String, Long> hostBytes = new HashMap<>();
+      for (int i = 0; i < bin.size(); i++) {
+        int file = bin.get(i);
+        splitUris[i] = uris.get(file);
+        splitLengths[i] = lengths.get(file);
+        if (splitLengths[i] >= localityMinBytes) {
+          addHostBytes(job, splitUris[i], splitLengths[i], hostBytes);
+        }
+      }
+      splits.add(new FileListSplit(splitUris, splitLengths, topHosts(hostBytes)));
+    }
+    log.info("Created {} splits for {} files and {} bytes", splits.size(), files, totalBytes);
+    return splits.toArray(new InputSplit[splits.size()]);
+  }
+
+  /**
+   * Largest first, each file goes to the bin with the fewest bytes that still has room for a file
+   *
+   * @return the bin of every file
+   */
+  static int[] assign(final List<Long> lengths, int bins, int maxFiles) {
+    Integer[] bySize = new Integer[lengths.size()];
+    for (int i = 0; i < bySize.length; i++) {
+      bySize[i] = i;
+    }
+    Arrays.sort(bySize, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        return Long.compare(lengths.get(b), lengths.get(a));
+      }
+    });
+
+    final long[] binBytes = new long[bins];
+    int[] binFiles = new int[bins];
+    PriorityQueue<Integer> open = new PriorityQueue<>(bins, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        int c = Long.compare(binBytes[a], binBytes[b]);
+        return c != 0 ? c : Integer.compare(a, b);
+      }
+    });
+    for (int bin = 0; bin < bins; bin++) {
+      open.add(bin);
+    }
+
+    int[] binOf = new int[bySize.length];
+    for (int file : bySize) {
+      Integer bin = open.poll();
+      boolean full = bin == null;
+      if (full) {
+        // only when bins * maxFiles < files
+        bin = file % bins;
+      }
+      binOf[file] = bin;
+      binBytes[bin] += lengths.get(file);
+      if (!full && ++binFiles[bin] < maxFiles) {
+        open.add(bin);
+      }
+    }
+    return binOf;
+  }
+
+  private static long ceilDiv(long a, long b) {
+    return (a + b - 1) / b;
+  }
+
+  private static void readFileList(JobConf job, Path path, List<String> uris, List<Long> lengths)
+      throws IOException {
+    FileSystem fs = path.getFileSystem(job);
+    SequenceFile.Reader reader = new SequenceFile.Reader(fs, path, job);
+    try {
+      Text uri = new Text();
+      LongWritable length = new LongWritable();
+      while (reader.next(uri, length)) {
+        uris.add(uri.toString());
+        lengths.add(length.get());
+      }
+    } finally {
+      reader.close();
+    }
+  }
+
+  private static void addHostBytes(JobConf job, String uri, long length, Map<String, Long> hostBytes) {
+    try {
+      Path path = new Path(uri);
+      BlockLocation[] blocks = path.getFileSystem(job).getFileBlockLocations(path, 0, length);
+      for (BlockLocation block : blocks) {
+        for (String host : block.getHosts()) {
+          Long bytes = hostBytes.get(host);
+          hostBytes.put(host, (bytes == null ? 0 : bytes) + block.getLength());
+        }
+      }
+    } catch (IOException e) {
+      log.warn("Unable to get the block locations of " + uri, e);
+    }
+  }
+
+  private static String[] topHosts(final Map<String, Long> hostBytes) {
+    List<String> hosts = new ArrayList<>(hostBytes.keySet());
+    Collections.sort(hosts, new Comparator<String>() {
+      @Override
+      public int compare(String a, String b) {
+        return Long.compare(hostBytes.get(b), hostBytes.get(a));
+      }
+    });
+    return hosts.subList(0, Math.min(MAX_LOCATIONS, hosts.size())).toArray(new String[0]);
+  }
+
+  @Override
+  public RecordReader<Text, LongWritable> getRecordReader(InputSplit split, JobConf job, Reporter reporter)
+      throws IOException {
+    return new FileListRecordReader((FileListSplit) split);
+  }
+
+  /**
+   * A set of files and their lengths
+   */
+  public static class FileListSplit implements InputSplit {
+    private String[] uris;
+    private long[] lengths;
+    private String[] locations;
+
+    public FileListSplit() {
+      this(new String[0], new long[0], new String[0]);
+    }
+
+    public FileListSplit(String[] uris, long[] lengths, String[] locations) {
+      this.uris = uris;
+      this.lengths = lengths;
+      this.locations = locations;
+    }
+
+    public String[] getUris() {
+      return uris;
+    }
+
+    public long[] getLengths() {
+      return lengths;
+    }
+
+    @Override
+    public long getLength() {
+      long total = 0;
+      for (long length : lengths) {
+        total += length;
+      }
+      return total;
+    }
+
+    @Override
+    public String[] getLocations() {
+      return locations;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+      WritableUtils.writeVInt(out, uris.length);
+      for (int i = 0; i < uris.length; i++) {
+        Text.writeString(out, uris[i]);
+        WritableUtils.writeVLong(out, lengths[i]);
+      }
+      // the locations are only used when scheduling, they are not sent to the task
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+      int size = WritableUtils.readVInt(in);
+      uris = new String[size];
+      lengths = new long[size];
+      for (int i = 0; i < size; i++) {
+        uris[i] = Text.readString(in);
+        lengths[i] = WritableUtils.readVLong(in);
+      }
+      locations = new String[0];
+    }
+
+    @Override
+    public String toString() {
+      return "FileListSplit{files=" + uris.length + ", bytes=" + getLength() + "}";
+    }
+  }
+
+  private static class FileListRecordReader implements RecordReader<Text, LongWritable> {
+    private final FileListSplit split;
+    private final long totalBytes;
+    private long readBytes = 0;
+    private int next = 0;
+
+    FileListRecordReader(FileListSplit split) {
+      this.split = split;
+      this.totalBytes = split.getLength();
+    }
+
+    @Override
+    public boolean next(Text key, LongWritable value) throws IOException {
+      if (next >= split.uris.length) {
+        return false;
+      }
+      key.set(split.uris[next]);
+      value.set(split.lengths[next]);
+      readBytes += split.lengths[next];
+      next++;
+      return true;
+    }
+
+    @Override
+    public Text createKey() {
+      return new Text();
+    }
+
+    @Override
+    public LongWritable createValue() {
+      return new LongWritable();
+    }
+
+    @Override
+    public long getPos() throws IOException {
+      return readBytes;
+    }
+
+    @Override
+    public void close() throws IOException {
+    }
+
+    @Override
+    public float getProgress() throws IOException {
+      if (totalBytes > 0) {
+        return (float) readBytes / totalBytes;
+      }
+      return split.uris.length == 0 ? 1.0f : (float) next / split.uris.length;
+    }
+  }
+}
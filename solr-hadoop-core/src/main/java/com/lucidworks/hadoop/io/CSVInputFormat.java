@@ -0,0 +1,477 @@
+package com.lucidworks.hadoop.io;
+
+import com.lucidworks.hadoop.ingest.CSVIngestMapper;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.commons.csv.CSVStrategy;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.JobConfigurable;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Like TextInputFormat, but a record only ends at an end of line outside of an encapsulated cell
+ * of the {@link CSVStrategy} configured for the {@link CSVIngestMapper}, so quoted values may
+ * contain new lines. Keys are the offsets of the records, values the records without their end of
+ * line.
+ * <p/>
+ * A split reads the records starting up to its end, the last one possibly going past it, and
+ * starts with the first record after its start. Whether the first new line of a split is inside
+ * an encapsulated cell can't be known without reading the file from the beginning, so both cases
+ * are followed over the next {@link #LOOKAHEAD_BYTES}: a case leading to a record CSVParser would
+ * reject is dropped, and when both are valid until they end a record at the same place, the one
+ * whose records have the same number of cells as the records that follow is kept.
+ * <p/>
+ * Compressed files are not split.
+ */
+public class CSVInputFormat extends FileInputFormat<LongWritable, Text> implements JobConfigurable {
+  private static transient Logger log = LoggerFactory.getLogger(CSVInputFormat.class);
+
+  public static final String LOOKAHEAD_BYTES = "csvSplitLookahead";
+  public static final String MAX_RECORD_BYTES = "csvMaxRecordBytes";
+
+  public static final int DEFAULT_LOOKAHEAD_BYTES = 1024 * 1024;
+  public static final int DEFAULT_MAX_RECORD_BYTES = 64 * 1024 * 1024;
+
+  private CompressionCodecFactory compressionCodecs = null;
+
+  @Override
+  public void configure(JobConf conf) {
+    compressionCodecs = new CompressionCodecFactory(conf);
+  }
+
+  @Override
+  protected boolean isSplitable(FileSystem fs, Path file) {
+    return compressionCodecs.getCodec(file) == null;
+  }
+
+  @Override
+  public RecordReader<LongWritable, Text> getRecordReader(InputSplit split, JobConf job, Reporter reporter)
+      throws IOException {
+    reporter.setStatus(split.toString());
+    return new CSVRecordReader(job, (FileSplit) split);
+  }
+
+  /**
+   * Follow the two interpretations of the data starting at a split: the first new line ends a
+   * record, or it is part of an encapsulated cell.
+   *
+   * @param eof true if the data goes to the end of the file
+   * @return the offset in data of the first record, or -1 if it is not within data
+   */
+  static int findRecordStart(byte[] data, int length, boolean eof, CSVStrategy strategy) {
+    int lineStart = 0;
+    while (lineStart < length && !RecordScanner.isEndOfLine(data[lineStart])) {
+      lineStart++;
+    }
+    if (lineStart == length) {
+      return -1;
+    }
+    lineStart = skipEndOfLine(data, lineStart, length);
+
+    RecordScanner[] scanners = {new RecordScanner(strategy), new RecordScanner(strategy)};
+    scanners[1].resetInsideQuotes();
+    int[] first = {lineStart, -1};
+    boolean[] valid = {true, true};
+    boolean[] skipLineFeed = {false, false};
+    List<List<Integer>> cells = new ArrayList<>();
+    cells.add(new ArrayList<Integer>());
+    cells.add(new ArrayList<Integer>());
+    int converged = -1;
+    for (int i = lineStart; i < length && converged < 0; i++) {
+      byte b = data[i];
+      int ends = 0;
+      for (int h = 0; h < 2; h++) {
+        if (skipLineFeed[h]) {
+          skipLineFeed[h] = false;
+          if (b == '\n') {
+            continue;
+          }
+        }
+        RecordScanner scanner = scanners[h];
+        if (scanner.next(b)) {
+          valid[h] &= !scanner.isInvalid();
+          if (!scanner.isBlank()) {
+            cells.get(h).add(scanner.getCells());
+          }
+          if (first[h] < 0) {
+            first[h] = skipEndOfLine(data, i, length);
+          }
+          skipLineFeed[h] = b == '\r';
+          scanner.reset();
+          ends++;
+        }
+      }
+      if (ends == 2) {
+        converged = i;
+      }
+    }
+
+    int choice = 0;
+    if (converged < 0 && eof) {
+      // the data ends inside an encapsulated cell
+      valid[0] &= !scanners[0].isInsideQuotes();
+      valid[1] &= !scanners[1].isInsideQuotes();
+    }
+    if (valid[0] != valid[1]) {
+      choice = valid[0] ? 0 : 1;
+    } else if (converged >= 0) {
+      int expected = nextRecordCells(data, skipEndOfLine(data, converged, length), length, scanners[0]);
+      if (expected > 0 && countOtherThan(cells.get(1), expected) < countOtherThan(cells.get(0), expected)) {
+        choice = 1;
+      }
+    } else {
+      log.warn("Unable to tell if the CSV split starts inside a quoted value within {} bytes, assuming it does not",
+          length);
+    }
+    return first[choice];
+  }
+
+  private static int skipEndOfLine(byte[] data, int endOfLine, int length) {
+    int next = endOfLine + 1;
+    if (data[endOfLine] == '\r' && next < length && data[next] == '\n') {
+      next++;
+    }
+    return next;
+  }
+
+  /**
+   * @return the number of cells of the first non blank record, or 0 if there isn't a complete one
+   */
+  private static int nextRecordCells(byte[] data, int start, int length, RecordScanner scanner) {
+    for (int i = start; i < length; i++) {
+      if (scanner.next(data[i])) {
+        if (!scanner.isBlank() && !scanner.isInvalid()) {
+          return scanner.getCells();
+        }
+        scanner.reset();
+      }
+    }
+    return 0;
+  }
+
+  private static int countOtherThan(List<Integer> values, int expected) {
+    int count = 0;
+    for (int value : values) {
+      if (value != expected) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Byte at a time state machine telling where a record ends, following the CSVParser lexer.
+   */
+  static class RecordScanner {
+    private static final char DISABLED = (char) -2;
+    private static final int NO_BYTE = Integer.MIN_VALUE;
+
+    private static final int CELL_START = 0;
+    private static final int SIMPLE = 1;
+    private static final int ENCAPSULATED = 2;
+    // an encapsulator in an encapsulated cell: its end, or the first half of a doubled encapsulator
+    private static final int ENCAPSULATOR = 3;
+    private static final int AFTER_ENCAPSULATED = 4;
+    private static final int COMMENT = 5;
+    private static final int INVALID = 6;
+
+    private final int delimiter;
+    private final int encapsulator;
+    private final int escape;
+    private final int commentStart;
+    private final boolean ignoreLeadingWhitespaces;
+
+    private int state;
+    private boolean escaped;
+    private int cells;
+    private int bytes;
+
+    RecordScanner(CSVStrategy strategy) {
+      delimiter = toByte(strategy.getDelimiter());
+      encapsulator = toByte(strategy.getEncapsulator());
+      escape = toByte(strategy.getEscape());
+      commentStart = toByte(strategy.getCommentStart());
+      ignoreLeadingWhitespaces = strategy.getIgnoreLeadingWhitespaces();
+      reset();
+    }
+
+    private static int toByte(char c) {
+      if (c == DISABLED) {
+        return NO_BYTE;
+      }
+      if (c >= 0x80) {
+        throw new IllegalArgumentException("Multi-line CSV records need ASCII delimiter, encapsulator, "
+            + "escape and comment characters");
+      }
+      return c;
+    }
+
+    void reset() {
+      state = CELL_START;
+      escaped = false;
+      cells = 1;
+      bytes = 0;
+    }
+
+    void resetInsideQuotes() {
+      reset();
+      state = ENCAPSULATED;
+      bytes = 1;
+    }
+
+    /**
+     * @return true if the byte is the end of line ending the record
+     */
+    boolean next(int b) {
+      if (escaped) {
+        escaped = false;
+        bytes++;
+        return false;
+      }
+      switch (state) {
+        case CELL_START:
+          if (b == delimiter) {
+            cells++;
+          } else if (isEndOfLine(b)) {
+            return true;
+          } else if (b == commentStart) {
+            state = COMMENT;
+          } else if (b == encapsulator) {
+            state = ENCAPSULATED;
+          } else if (!ignoreLeadingWhitespaces || !isWhitespace(b)) {
+            state = SIMPLE;
+            escaped = b == escape;
+          }
+          break;
+        case SIMPLE:
+          if (b == delimiter) {
+            state = CELL_START;
+            cells++;
+          } else if (isEndOfLine(b)) {
+            return true;
+          } else {
+            escaped = b == escape;
+          }
+          break;
+        case ENCAPSULATED:
+          if (b == escape) {
+            escaped = true;
+          } else if (b == encapsulator) {
+            state = ENCAPSULATOR;
+          }
+          break;
+        case ENCAPSULATOR:
+          if (b == encapsulator) {
+            state = ENCAPSULATED;
+            break;
+          }
+          state = AFTER_ENCAPSULATED;
+          return next(b);
+        case AFTER_ENCAPSULATED:
+          if (b == delimiter) {
+            state = CELL_START;
+            cells++;
+          } else if (isEndOfLine(b)) {
+            return true;
+          } else if (!isWhitespace(b)) {
+            state = INVALID;
+          }
+          break;
+        default:
+          // comments and invalid records go to the end of the line
+          if (isEndOfLine(b)) {
+            return true;
+          }
+      }
+      bytes++;
+      return false;
+    }
+
+    /**
+     * @return true if the record so far would be rejected by CSVParser
+     */
+    boolean isInvalid() {
+      return state == INVALID;
+    }
+
+    boolean isInsideQuotes() {
+      return state == ENCAPSULATED || escaped;
+    }
+
+    /**
+     * @return true for an empty or comment record
+     */
+    boolean isBlank() {
+      return bytes == 0 || state == COMMENT;
+    }
+
+    int getCells() {
+      return cells;
+    }
+
+    private boolean isWhitespace(int b) {
+      return b >= 0 && b != delimiter && Character.isWhitespace((char) b);
+    }
+
+    static boolean isEndOfLine(int b) {
+      return b == '\n' || b == '\r';
+    }
+  }
+
+  static class CSVRecordReader implements RecordReader<LongWritable, Text> {
+    private final RecordScanner scanner;
+    private final FSDataInputStream fileIn;
+    private final InputStream in;
+    private final boolean compressed;
+    private final long start;
+    private final long end;
+    private final long fileLength;
+    private final int maxRecordBytes;
+    private final byte[] buffer = new byte[64 * 1024];
+    private int bufferPos = 0;
+    private int bufferLength = 0;
+    private long pos;
+
+    CSVRecordReader(JobConf job, FileSplit split) throws IOException {
+      CSVStrategy strategy = CSVIngestMapper.createStrategy(job);
+      scanner = new RecordScanner(strategy);
+      maxRecordBytes = job.getInt(MAX_RECORD_BYTES, DEFAULT_MAX_RECORD_BYTES);
+      start = split.getStart();
+      Path file = split.getPath();
+      FileSystem fs = file.getFileSystem(job);
+      fileLength = fs.getFileStatus(file).getLen();
+      fileIn = fs.open(file);
+      CompressionCodec codec = new CompressionCodecFactory(job).getCodec(file);
+      compressed = codec != null;
+      if (compressed) {
+        in = codec.createInputStream(fileIn);
+        end = Long.MAX_VALUE;
+        pos = 0;
+      } else {
+        in = fileIn;
+        end = start + split.getLength();
+        pos = start == 0 ? 0 : findFirstRecord(strategy, job.getInt(LOOKAHEAD_BYTES, DEFAULT_LOOKAHEAD_BYTES));
+        if (pos <= end) {
+          fileIn.seek(pos);
+        }
+      }
+    }
+
+    /**
+     * @return the offset of the first record starting after the split start, or end + 1 if there is none
+     */
+    private long findFirstRecord(CSVStrategy strategy, int lookahead) throws IOException {
+      int size = Math.max(1024, lookahead);
+      while (true) {
+        byte[] window = new byte[size];
+        int length = 0;
+        int read;
+        while (length < size && (read = fileIn.read(start + length, window, length, size - length)) > 0) {
+          length += read;
+        }
+        boolean eof = length < size;
+        int first = findRecordStart(window, length, eof, strategy);
+        if (first >= 0) {
+          return start + first;
+        }
+        if (eof || start + length > end) {
+          return end + 1;
+        }
+        if (size > Integer.MAX_VALUE / 2) {
+          throw new IOException("No CSV record boundary found within " + size + " bytes after " + start);
+        }
+        size *= 2;
+      }
+    }
+
+    @Override
+    public synchronized boolean next(LongWritable key, Text value) throws IOException {
+      if (pos > end) {
+        return false;
+      }
+      long recordStart = pos;
+      value.clear();
+      scanner.reset();
+      while (bufferPos < bufferLength || fill()) {
+        int i = bufferPos;
+        boolean ended = false;
+        while (i < bufferLength && !(ended = scanner.next(buffer[i]))) {
+          i++;
+        }
+        value.append(buffer, bufferPos, i - bufferPos);
+        pos += i - bufferPos;
+        bufferPos = i;
+        if (ended) {
+          byte endOfLine = buffer[bufferPos++];
+          pos++;
+          if (endOfLine == '\r' && (bufferPos < bufferLength || fill()) && buffer[bufferPos] == '\n') {
+            bufferPos++;
+            pos++;
+          }
+          break;
+        }
+        if (value.getLength() > maxRecordBytes) {
+          throw new IOException("CSV record at offset " + recordStart + " is longer than " + maxRecordBytes
+              + " bytes, check for an unterminated encapsulated value");
+        }
+      }
+      if (pos == recordStart) {
+        return false;
+      }
+      key.set(recordStart);
+      return true;
+    }
+
+    private boolean fill() throws IOException {
+      bufferPos = 0;
+      bufferLength = Math.max(0, in.read(buffer, 0, buffer.length));
+      return bufferLength > 0;
+    }
+
+    @Override
+    public LongWritable createKey() {
+      return new LongWritable();
+    }
+
+    @Override
+    public Text createValue() {
+      return new Text();
+    }
+
+    @Override
+    public synchronized long getPos() throws IOException {
+      return compressed ? fileIn.getPos() : pos;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+      in.close();
+    }
+
+    @Override
+    public synchronized float getProgress() throws IOException {
+      if (compressed) {
+        return fileLength == 0 ? 0.0f : Math.min(1.0f, fileIn.getPos() / (float) fileLength);
+      }
+      if (start == end) {
+        return 0.0f;
+      }
+      return Math.min(1.0f, (pos - start) / (float) (end - start));
+    }
+  }
+}
@@ -0,0 +1,370 @@
+package com.lucidworks.hadoop.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.io.compress.Decompressor;
+import org.apache.hadoop.io.compress.SplitCompressionInputStream;
+import org.apache.hadoop.io.compress.SplittableCompressionCodec;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.JobConfigurable;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads the records between the {@link XMLInputFormat#START_TAG_KEY} and
+ * {@link XMLInputFormat#END_TAG_KEY} tags, both included, like XMLInputFormat, but finds the tags
+ * with a Boyer-Moore-Horspool search over large reads instead of matching a byte at a time.
+ * <p/>
+ * A record belongs to the split its start tag starts in, and may end in a following split.
+ * Files compressed with a splittable codec (bzip2) are split: the position of a record is then the
+ * position of the compressed block it starts in, and a split owns the blocks it starts. The codec
+ * only moves its position once it has returned the first byte of a new block, so the reader keeps
+ * the block of every range of bytes it read instead of asking the codec where a record starts.
+ * Other compressed files are read whole.
+ * <p/>
+ * Every reader counts the bytes it scanned, the records it read and the time it took under the
+ * ScanningXMLInputFormat counter group, and logs its throughput when closed.
+ */
+public class ScanningXMLInputFormat extends FileInputFormat<LongWritable, Text> implements JobConfigurable {
+  private static transient Logger log = LoggerFactory.getLogger(ScanningXMLInputFormat.class);
+
+  public static final String BUFFER_SIZE = "lww.xml.bufferSize";
+  public static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+
+  public static final String COUNTER_GROUP = "ScanningXMLInputFormat";
+  public static final String BYTES_SCANNED = "BytesScanned";
+  public static final String RECORDS_READ = "RecordsRead";
+  public static final String SCAN_MILLIS = "ScanMillis";
+
+  private CompressionCodecFactory compressionCodecs = null;
+
+  @Override
+  public void configure(JobConf conf) {
+    compressionCodecs = new CompressionCodecFactory(conf);
+  }
+
+  @Override
+  protected boolean isSplitable(FileSystem fs, Path file) {
+    CompressionCodec codec = compressionCodecs.getCodec(file);
+    return codec == null || codec instanceof SplittableCompressionCodec;
+  }
+
+  @Override
+  public RecordReader<LongWritable, Text> getRecordReader(InputSplit split, JobConf job, Reporter reporter)
+      throws IOException {
+    reporter.setStatus(split.toString());
+    String startTag = job.get(XMLInputFormat.START_TAG_KEY);
+    String endTag = job.get(XMLInputFormat.END_TAG_KEY);
+    if (startTag == null || startTag.isEmpty() || endTag == null || endTag.isEmpty()) {
+      throw new IOException("Missing XMLInputFormat Tags " + XMLInputFormat.START_TAG_KEY + " and/or "
+          + XMLInputFormat.END_TAG_KEY);
+    }
+    return new TagRecordReader(job, (FileSplit) split, reporter, startTag.getBytes(StandardCharsets.UTF_8),
+        endTag.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * @return the Boyer-Moore-Horspool bad character shifts of the pattern
+   */
+  static int[] shifts(byte[] pattern) {
+    int[] shifts = new int[256];
+    for (int i = 0; i < shifts.length; i++) {
+      shifts[i] = pattern.length;
+    }
+    for (int i = 0; i < pattern.length - 1; i++) {
+      shifts[pattern[i] & 0xFF] = pattern.length - 1 - i;
+    }
+    return shifts;
+  }
+
+  /**
+   * @return the index of the first occurrence of the pattern in data[from, to), or -1
+   */
+  static int indexOf(byte[] data, int from, int to, byte[] pattern, int[] shifts) {
+    int last = pattern.length - 1;
+    int i = from;
+    while (i + last < to) {
+      int j = last;
+      while (data[i + j] == pattern[j]) {
+        if (j == 0) {
+          return i;
+        }
+        j--;
+      }
+      i += shifts[data[i + last] & 0xFF];
+    }
+    return -1;
+  }
+
+  static class TagRecordReader implements RecordReader<LongWritable, Text> {
+    private final byte[] startTag;
+    private final byte[] endTag;
+    private final int[] startShifts;
+    private final int[] endShifts;
+    private final Reporter reporter;
+    private final FSDataInputStream fileIn;
+    private final InputStream in;
+    private final long fileLength;
+    private final long start;
+    private final long end;
+    // record positions are the positions of the compressed blocks reported by the codec
+    private final SplitCompressionInputStream blockIn;
+    private Decompressor decompressor = null;
+
+    private byte[] buffer;
+    private int bufferPos = 0;
+    private int bufferLength = 0;
+    // position of buffer[0] in the (uncompressed) stream
+    private long bufferOffset;
+    // for blockIn: the codec is read at offset 0 of readBuffer, and the bytes from
+    // buffer[blockStarts[i]] on come from the block at blockPositions[i]
+    private byte[] readBuffer;
+    private int[] blockStarts;
+    private long[] blockPositions;
+    private int blocks = 0;
+    private long blockPos;
+    private boolean done = false;
+
+    private long bytesScanned = 0;
+    private long records = 0;
+    private final long startNanos = System.nanoTime();
+
+    TagRecordReader(JobConf job, FileSplit split, Reporter reporter, byte[] startTag, byte[] endTag)
+        throws IOException {
+      this.startTag = startTag;
+      this.endTag = endTag;
+      this.startShifts = shifts(startTag);
+      this.endShifts = shifts(endTag);
+      this.reporter = reporter;
+      int bufferSize = job.getInt(BUFFER_SIZE, DEFAULT_BUFFER_SIZE);
+      buffer = new byte[Math.max(bufferSize, 4 * Math.max(startTag.length, endTag.length))];
+
+      Path file = split.getPath();
+      FileSystem fs = file.getFileSystem(job);
+      fileLength = fs.getFileStatus(file).getLen();
+      fileIn = fs.open(file);
+      CompressionCodec codec = new CompressionCodecFactory(job).getCodec(file);
+      if (codec == null) {
+        start = split.getStart();
+        end = start + split.getLength();
+        fileIn.seek(start);
+        in = fileIn;
+        blockIn = null;
+      } else {
+        decompressor = CodecPool.getDecompressor(codec);
+        if (codec instanceof SplittableCompressionCodec) {
+          blockIn = ((SplittableCompressionCodec) codec).createInputStream(fileIn, decompressor, split.getStart(),
+              split.getStart() + split.getLength(), SplittableCompressionCodec.READ_MODE.BYBLOCK);
+          in = blockIn;
+          start = blockIn.getAdjustedStart();
+          end = blockIn.getAdjustedEnd();
+        } else {
+          blockIn = null;
+          in = codec.createInputStream(fileIn, decompressor);
+          start = 0;
+          end = Long.MAX_VALUE;
+        }
+      }
+      bufferOffset = blockIn == null ? start : 0;
+      if (blockIn != null) {
+        readBuffer = new byte[buffer.length];
+        blockStarts = new int[4];
+        blockPositions = new long[4];
+        blockPos = blockIn.getPos();
+      }
+    }
+
+    @Override
+    public synchronized boolean next(LongWritable key, Text value) throws IOException {
+      if (done) {
+        return false;
+      }
+      int match = find(startTag, startShifts, bufferPos, null);
+      if (match < 0 || positionOf(match) >= end) {
+        done = true;
+        return false;
+      }
+      long recordPos = positionOf(match);
+      value.clear();
+      bufferPos = match;
+      int endMatch = find(endTag, endShifts, match + startTag.length, value);
+      if (endMatch < 0) {
+        log.warn("No {} after the record starting at {}", new String(endTag, StandardCharsets.UTF_8), recordPos);
+        done = true;
+        return false;
+      }
+      int recordEnd = endMatch + endTag.length;
+      value.append(buffer, bufferPos, recordEnd - bufferPos);
+      bufferPos = recordEnd;
+      key.set(recordPos);
+      records++;
+      return true;
+    }
+
+    /**
+     * Search the buffer from the index, refilling it as needed. The bytes from bufferPos that are
+     * dropped from the buffer are appended to the value if there is one, otherwise the search
+     * stops at the end of the split.
+     *
+     * @return the index of the pattern in the buffer, -1 at the end of the input or split
+     */
+    private int find(byte[] pattern, int[] shifts, int from, Text value) throws IOException {
+      int i = from;
+      while (true) {
+        int match = indexOf(buffer, i, bufferLength, pattern, shifts);
+        if (match >= 0) {
+          return match;
+        }
+        // a match may start in the last pattern.length - 1 bytes
+        int keepFrom = Math.max(i, bufferLength - pattern.length + 1);
+        if (value == null) {
+          if (positionOf(keepFrom) >= end) {
+            // no start tag before the end of the split
+            return -1;
+          }
+          bufferPos = keepFrom;
+        }
+        if (bufferPos < keepFrom) {
+          value.append(buffer, bufferPos, keepFrom - bufferPos);
+        }
+        compact(keepFrom);
+        i = 0;
+        if (!fill()) {
+          return -1;
+        }
+      }
+    }
+
+    private void compact(int keepFrom) {
+      if (blockIn != null) {
+        // drop the blocks that end before keepFrom
+        int first = 0;
+        while (first + 1 < blocks && blockStarts[first + 1] <= keepFrom) {
+          first++;
+        }
+        blocks -= first;
+        for (int i = 0; i < blocks; i++) {
+          blockStarts[i] = Math.max(0, blockStarts[first + i] - keepFrom);
+          blockPositions[i] = blockPositions[first + i];
+        }
+      }
+      bufferLength -= keepFrom;
+      System.arraycopy(buffer, keepFrom, buffer, 0, bufferLength);
+      bufferOffset += keepFrom;
+      bufferPos = 0;
+    }
+
+    /**
+     * Read once after the bytes in the buffer
+     */
+    private boolean fill() throws IOException {
+      if (blockIn == null) {
+        int read = in.read(buffer, bufferLength, buffer.length - bufferLength);
+        if (read <= 0) {
+          return false;
+        }
+        bufferLength += read;
+        bytesScanned += read;
+        return true;
+      }
+      // A read doesn't go over a block boundary. The first read of a new block returns its first
+      // byte only, and the codec reports the position of the block, plus one, after it. Some codec
+      // versions read up to offset + 1 bytes there, so the codec is always read at offset 0.
+      long before = blockIn.getPos();
+      int read = in.read(readBuffer, 0, buffer.length - bufferLength);
+      if (read <= 0) {
+        return false;
+      }
+      long after = blockIn.getPos();
+      if (after != before) {
+        blockPos = after - 1;
+      }
+      if (blocks == 0 || blockPositions[blocks - 1] != blockPos) {
+        if (blocks == blockStarts.length) {
+          blockStarts = Arrays.copyOf(blockStarts, blocks * 2);
+          blockPositions = Arrays.copyOf(blockPositions, blocks * 2);
+        }
+        blockStarts[blocks] = bufferLength;
+        blockPositions[blocks] = blockPos;
+        blocks++;
+      }
+      System.arraycopy(readBuffer, 0, buffer, bufferLength, read);
+      bufferLength += read;
+      bytesScanned += read;
+      return true;
+    }
+
+    private long positionOf(int index) {
+      if (blockIn != null) {
+        int i = blocks - 1;
+        while (i > 0 && blockStarts[i] > index) {
+          i--;
+        }
+        return blocks == 0 ? blockPos : blockPositions[i];
+      }
+      return bufferOffset + index;
+    }
+
+    @Override
+    public LongWritable createKey() {
+      return new LongWritable();
+    }
+
+    @Override
+    public Text createValue() {
+      return new Text();
+    }
+
+    @Override
+    public synchronized long getPos() throws IOException {
+      return blockIn != null ? blockIn.getPos() : bufferOffset + bufferPos;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+      try {
+        in.close();
+      } finally {
+        if (decompressor != null) {
+          CodecPool.returnDecompressor(decompressor);
+          decompressor = null;
+        }
+      }
+      long millis = (System.nanoTime() - startNanos) / 1000000;
+      reporter.incrCounter(COUNTER_GROUP, BYTES_SCANNED, bytesScanned);
+      reporter.incrCounter(COUNTER_GROUP, RECORDS_READ, records);
+      reporter.incrCounter(COUNTER_GROUP, SCAN_MILLIS, millis);
+      log.info("Read {} records from {} bytes in {} ms ({} MB/s)", records, bytesScanned, millis,
+          millis > 0 ? String.format("%.1f", bytesScanned / 1048.576 / millis) : "-");
+    }
+
+    @Override
+    public synchronized float getProgress() throws IOException {
+      if (done) {
+        return 1.0f;
+      }
+      if (end == Long.MAX_VALUE) {
+        return fileLength == 0 ? 0.0f : Math.min(1.0f, fileIn.getPos() / (float) fileLength);
+      }
+      if (start == end) {
+        return 0.0f;
+      }
+      return Math.min(1.0f, (getPos() - start) / (float) (end - start));
+    }
+  }
+}
@@ -11,4 +11,6 @@ public final class ConfigurationKeys {
   public static final String SOLR_SERVER_URL = BaseHadoopIngest.class.getName() + ".solr";
   public static final String TEMP_DIR = BaseHadoopIngest.class.getName() + ".tmpDir";
   public static final String OVERWRITE = BaseHadoopIngest.class.getName() + ".overwrite";
+  // see com.lucidworks.hadoop.ingest.DocumentIdMode
+  public static final String ID_MODE = BaseHadoopIngest.class.getName() + ".idMode";
 }
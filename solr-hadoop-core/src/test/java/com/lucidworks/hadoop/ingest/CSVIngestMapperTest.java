@@ -1,8 +1,10 @@
 package com.lucidworks.hadoop.ingest;
 
+import com.lucidworks.hadoop.io.CSVInputFormat;
 import org.apache.commons.codec.binary.Base64;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapreduce.Job;
 import org.junit.Test;
 
@@ -17,6 +19,7 @@ import static com.lucidworks.hadoop.utils.ConfigurationKeys.ZK_CONNECT;
 import static junit.framework.TestCase.assertEquals;
 import static junit.framework.TestCase.assertNotNull;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 public class CSVIngestMapperTest extends BaseMiniClusterTestCase {
 
@@ -200,6 +203,76 @@ public class CSVIngestMapperTest extends BaseMiniClusterTestCase {
                 job.getCounters().findCounter(BaseHadoopIngest.Counters.DOCS_ADDED).getValue());
     }
 
+    @Test
+    public void testMultiLineRecords() throws Exception {
+        final int numRecords = 200;
+        for (int i = 0; i < numRecords; i++) {
+            jobInput.add("id-" + i + ",\"first line of " + i + "\nsecond, \"\"line\"\"\"," + i);
+        }
+
+        Configuration conf = getDefaultCSVMapperConfiguration();
+        conf.set(CSVIngestMapper.CSV_IGNORE_FIRST_LINE_COMMENT, "false");
+        conf.set(CSVIngestMapper.CSV_FIELD_MAPPING, "0=id,1=body,2=count");
+        conf.setInt("mapreduce.job.maps", 4); // splits starting in the middle of records
+        Job job = createJobBasedOnConfiguration(conf, CSVIngestMapper.class);
+        ((JobConf) job.getConfiguration()).setInputFormat(CSVInputFormat.class);
+
+        // the body new line is kept, every document takes two lines of output
+        final List<String> results = runJobSuccessfully(job, jobInput, 2 * numRecords);
+
+        assertNumDocsProcessed(job, numRecords);
+        assertTrue(results.contains("id-42\tLWDocumentWritable{document=SolrInputDocument(fields: [id=id-42, "
+                + "body=first line of 42"));
+        assertTrue(results.contains("second, \"line\", count=42])}"));
+    }
+
+    @Test
+    public void testHeaderAndFieldTypes() throws Exception {
+        jobInput.add("title, id, count, price");
+        jobInput.add("The quick brown fox, id-1, 42, 1.5");
+        jobInput.add("jumped, id-2, not a number, 2");
+
+        Configuration conf = getDefaultCSVMapperConfiguration();
+        conf.unset(CSVIngestMapper.CSV_FIELD_MAPPING);
+        conf.set(CSVIngestMapper.CSV_IGNORE_FIRST_LINE_COMMENT, "false");
+        conf.setBoolean(CSVIngestMapper.CSV_HEADER, true);
+        conf.set(CSVIngestMapper.CSV_FIELD_TYPES, "count=long, price=double");
+
+        Job job = createJobBasedOnConfiguration(conf, CSVIngestMapper.class);
+        final List<String> results = runJobSuccessfully(job, jobInput, 2);
+
+        assertNumDocsProcessed(job, 2);
+        assertEquals(createExpectedDocStrWithFields("id-1", "id", "id-1", "title", "The quick brown fox",
+                "count", "42", "price", "1.5"), results.get(0));
+        // the count can't be converted and is dropped
+        assertEquals(createExpectedDocStrWithFields("id-2", "id", "id-2", "title", "jumped", "price", "2.0"),
+                results.get(1));
+        assertEquals(1, job.getCounters().findCounter("CSVIngestMapper", "FieldConversionFailed").getValue());
+    }
+
+    @Test
+    public void testDefaultDateFormat() throws Exception {
+        jobInput.add("id, when");
+        jobInput.add("id-1, 2020-01-31");
+        jobInput.add("id-2, 2020-01-31T10:15:30");
+        jobInput.add("id-3, 2020-01-31T10:15:30+01:00");
+
+        Configuration conf = getDefaultCSVMapperConfiguration();
+        conf.unset(CSVIngestMapper.CSV_FIELD_MAPPING);
+        conf.set(CSVIngestMapper.CSV_IGNORE_FIRST_LINE_COMMENT, "false");
+        conf.setBoolean(CSVIngestMapper.CSV_HEADER, true);
+        conf.set(CSVIngestMapper.CSV_FIELD_TYPES, "when=date");
+
+        Job job = createJobBasedOnConfiguration(conf, CSVIngestMapper.class);
+        final List<String> results = runJobSuccessfully(job, jobInput, 3);
+
+        assertNumDocsProcessed(job, 3);
+        assertEquals(0, job.getCounters().findCounter("CSVIngestMapper", "FieldConversionFailed").getValue());
+        for (String result : results) {
+            assertTrue(result, result.contains("when="));
+        }
+    }
+
     private int addFrankensteinDataToJobInput() throws Exception {
         InputStream frank = CSVIngestMapperTest.class.getClassLoader()
                 .getResourceAsStream("csv" + File.separator + "frank.csv");
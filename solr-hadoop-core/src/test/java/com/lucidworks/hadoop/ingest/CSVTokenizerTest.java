@@ -0,0 +1,106 @@
+package com.lucidworks.hadoop.ingest;
+
+import com.lucidworks.hadoop.ingest.util.CSVTokenizer;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVStrategy;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+public class CSVTokenizerTest {
+
+  private static final String[] LINES = {
+      "a,b,c",
+      " a , b ,c ",
+      "\"a,b\",\"c\"\"d\",e",
+      "\"x\" , y",
+      "a,,b,",
+      "  ",
+      "h\u00e9llo,w\u00f6rld,\u65e5\u672c",
+      "1,\"multi\nline\",3",
+      "\"\",\"\"\"\"",
+      "id-1\tThe quick brown fox\tjumped"
+  };
+
+  @Test
+  public void testDefaultStrategy() throws Exception {
+    assertSameAsParser(CSVStrategy.DEFAULT_STRATEGY);
+  }
+
+  @Test
+  public void testExcelStrategy() throws Exception {
+    assertSameAsParser(CSVStrategy.EXCEL_STRATEGY);
+  }
+
+  @Test
+  public void testTabDelimitedStrategy() throws Exception {
+    assertSameAsParser(CSVStrategy.TDF_STRATEGY);
+  }
+
+  @Test
+  public void testEscapesAndComments() throws Exception {
+    CSVStrategy strategy = new CSVStrategy(',', '\'', '#', '\\', true, true, false, true);
+    CSVTokenizer tokenizer = new CSVTokenizer(strategy);
+
+    Assert.assertArrayEquals(new String[] {"a,b", "c"}, tokenize(tokenizer, "a\\,b,c"));
+    Assert.assertArrayEquals(new String[] {"q't", "x"}, tokenize(tokenizer, "'q\\'t',x"));
+    Assert.assertArrayEquals(new String[] {"a\tb", "c"}, tokenize(tokenizer, "a\\tb  ,c"));
+    Assert.assertArrayEquals(new String[0], tokenize(tokenizer, "# a comment"));
+    Assert.assertArrayEquals(new String[] {"a"}, tokenize(tokenizer, "a,#rest of the line"));
+  }
+
+  @Test
+  public void testTrimmed() throws Exception {
+    CSVTokenizer tokenizer = new CSVTokenizer(CSVStrategy.EXCEL_STRATEGY);
+    byte[] line = " a ,\" b\t\", ".getBytes(StandardCharsets.UTF_8);
+
+    Assert.assertEquals(3, tokenizer.tokenize(line, 0, line.length));
+    Assert.assertEquals("a", tokenizer.getTrimmed(0));
+    Assert.assertEquals("b", tokenizer.getTrimmed(1));
+    Assert.assertFalse(tokenizer.isBlank(1));
+    Assert.assertTrue(tokenizer.isBlank(2));
+  }
+
+  @Test(expected = IOException.class)
+  public void testUnterminatedEncapsulator() throws Exception {
+    tokenize(new CSVTokenizer(CSVStrategy.DEFAULT_STRATEGY), "a,\"b");
+  }
+
+  @Test(expected = IOException.class)
+  public void testCharAfterEncapsulator() throws Exception {
+    tokenize(new CSVTokenizer(CSVStrategy.DEFAULT_STRATEGY), "\"a\"b,c");
+  }
+
+  @Test
+  public void testUnicodeEscapesNeedParser() {
+    CSVStrategy strategy = new CSVStrategy(',', '"', CSVStrategy.COMMENTS_DISABLED, CSVStrategy.ESCAPE_DISABLED,
+        true, true, true, true);
+    Assert.assertFalse(CSVTokenizer.supports(strategy));
+    Assert.assertTrue(CSVTokenizer.supports(CSVStrategy.DEFAULT_STRATEGY));
+  }
+
+  private void assertSameAsParser(CSVStrategy strategy) throws IOException {
+    CSVTokenizer tokenizer = new CSVTokenizer(strategy);
+    for (String line : LINES) {
+      String[] expected = new CSVParser(new StringReader(line), strategy).getLine();
+      String[] actual = tokenize(tokenizer, line);
+      Assert.assertEquals("Line: " + line, Arrays.toString(expected == null ? new String[0] : expected),
+          Arrays.toString(actual));
+    }
+  }
+
+  private static String[] tokenize(CSVTokenizer tokenizer, String line) throws IOException {
+    // the record does not start at the beginning of the buffer, like a reused Text
+    byte[] bytes = ("##" + line).getBytes(StandardCharsets.UTF_8);
+    int count = tokenizer.tokenize(bytes, 2, bytes.length - 2);
+    String[] cells = new String[count];
+    for (int i = 0; i < count; i++) {
+      cells[i] = tokenizer.get(i);
+    }
+    return cells;
+  }
+}
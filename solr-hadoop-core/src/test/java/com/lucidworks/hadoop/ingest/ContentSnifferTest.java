@@ -0,0 +1,56 @@
+package com.lucidworks.hadoop.ingest;
+
+import com.lucidworks.hadoop.ingest.util.ContentSniffer;
+import com.lucidworks.hadoop.ingest.util.ContentSniffer.Action;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapred.Reporter;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class ContentSnifferTest {
+
+  private static final byte[] MP4 = {0, 0, 0, 0x20, 'f', 't', 'y', 'p', 'i', 's', 'o', 'm'};
+  private static final byte[] M4A = {0, 0, 0, 0x20, 'f', 't', 'y', 'p', 'M', '4', 'A', ' '};
+  private static final byte[] HEIC = {0, 0, 0, 0x18, 'f', 't', 'y', 'p', 'h', 'e', 'i', 'c'};
+  private static final byte[] ZIP = {'P', 'K', 3, 4, 20, 0, 0, 0};
+  private static final byte[] TEXT = "The quick brown fox".getBytes(StandardCharsets.US_ASCII);
+
+  @Test
+  public void testDetect() throws Exception {
+    ContentSniffer sniffer = new ContentSniffer(new Configuration(false));
+    assertFalse(sniffer.isEnabled());
+
+    assertEquals("video/mp4", sniffer.detect(MP4, 0, MP4.length, null));
+    // ISO base media files are told apart by their brand, or their extension for the generic ones
+    assertEquals("audio/mp4", sniffer.detect(M4A, 0, M4A.length, null));
+    assertEquals("audio/mp4", sniffer.detect(MP4, 0, MP4.length, "song.m4a"));
+    assertEquals("image/heic", sniffer.detect(HEIC, 0, HEIC.length, "photo.jpg"));
+    assertEquals("application/zip", sniffer.detect(ZIP, 0, ZIP.length, "archive.zip"));
+    // the extension of a zip container is more specific
+    assertEquals("application/vnd.openxmlformats-officedocument.wordprocessingml.document",
+        sniffer.detect(ZIP, 0, ZIP.length, "/dir/report.docx"));
+    assertEquals("video/x-matroska", sniffer.detect(TEXT, 0, TEXT.length, "http://host/movie.MKV?t=1.txt"));
+    assertNull(sniffer.detect(TEXT, 0, TEXT.length, "/dir.mp4/notes"));
+    // the magic number doesn't fit in the bytes given
+    assertNull(sniffer.detect(MP4, 0, 6, null));
+  }
+
+  @Test
+  public void testActions() throws Exception {
+    Configuration conf = new Configuration(false);
+    conf.set(ContentSniffer.SKIP_TYPES, "video/*, application/x-executable");
+    conf.set(ContentSniffer.METADATA_ONLY_TYPES, "application/zip");
+    ContentSniffer sniffer = new ContentSniffer(conf);
+
+    assertEquals(Action.SKIP, sniffer.actionFor("video/mp4", "id", Reporter.NULL));
+    assertEquals(Action.SKIP, sniffer.actionFor("application/x-executable", "id", Reporter.NULL));
+    assertEquals(Action.METADATA_ONLY, sniffer.actionFor("application/zip", "id", Reporter.NULL));
+    assertEquals(Action.INDEX, sniffer.actionFor("application/pdf", "id", Reporter.NULL));
+    assertEquals(Action.INDEX, sniffer.actionFor(null, "id", Reporter.NULL));
+  }
+}
@@ -1,12 +1,17 @@
 package com.lucidworks.hadoop.ingest;
 
+import com.lucidworks.hadoop.ingest.util.ContentSniffer;
+import com.lucidworks.hadoop.io.BalancedFileListInputFormat;
 import com.lucidworks.hadoop.io.LWDocumentWritable;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.SequenceFile;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.InputSplit;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.SequenceFileInputFormat;
 import org.apache.hadoop.mapreduce.Job;
@@ -15,15 +20,21 @@ import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import static com.lucidworks.hadoop.utils.ConfigurationKeys.*;
 import static junit.framework.Assert.assertEquals;
 import static junit.framework.TestCase.assertNotNull;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
 
 
 public class DirectoryIngestMapperTest extends BaseMiniClusterTestCase {
@@ -32,6 +43,7 @@ public class DirectoryIngestMapperTest extends BaseMiniClusterTestCase {
     private Configuration conf;
     private JobConf jobConf;
     private int tempFiles;
+    private Job job;
 
     @Before
     public void setUp() throws Exception {
@@ -65,6 +77,124 @@ public class DirectoryIngestMapperTest extends BaseMiniClusterTestCase {
         doTest(tempFiles);
     }
 
+    @Test
+    public void testParallelListing() throws Exception {
+        jobConf.set(DirectoryIngestMapper.DIRECTORY_ADD_SUBDIRECTORIES, "true");
+        Path[] inputPaths = org.apache.hadoop.mapred.FileInputFormat.getInputPaths(jobConf);
+        Path serial = new Path(jobConf.get(TEMP_DIR), "serial.seq");
+        DirectoryIngestMapper.expandGlob(jobConf, serial, inputPaths);
+
+        JobConf parallelConf = new JobConf(jobConf);
+        parallelConf.setInt(DirectoryIngestMapper.DIRECTORY_LIST_THREADS, 4);
+        Path parallel = new Path(jobConf.get(TEMP_DIR), "parallel.seq");
+        DirectoryIngestMapper.expandGlob(parallelConf, parallel, inputPaths);
+
+        List<String> expected = readInputs(serial);
+        assertEquals(tempFiles, expected.size());
+        assertEquals(expected, readInputs(parallel));
+
+        jobConf.setInt(DirectoryIngestMapper.DIRECTORY_LIST_THREADS, 4);
+        doTest(tempFiles);
+    }
+
+    @Test
+    public void testBalancedSplits() throws Exception {
+        jobConf.set(DirectoryIngestMapper.DIRECTORY_ADD_SUBDIRECTORIES, "true");
+        Path inputs = new Path(jobConf.get(TEMP_DIR), "balanced.seq");
+        DirectoryIngestMapper.expandGlob(jobConf, inputs,
+                org.apache.hadoop.mapred.FileInputFormat.getInputPaths(jobConf));
+
+        JobConf splitConf = new JobConf(jobConf);
+        org.apache.hadoop.mapred.FileInputFormat.setInputPaths(splitConf, inputs);
+        splitConf.setInt(BalancedFileListInputFormat.MAX_SPLIT_FILES, 3);
+        InputSplit[] splits = new BalancedFileListInputFormat().getSplits(splitConf, 1);
+
+        assertEquals((tempFiles + 2) / 3, splits.length);
+        int files = 0;
+        long bytes = 0;
+        for (InputSplit split : splits) {
+            BalancedFileListInputFormat.FileListSplit fileList = (BalancedFileListInputFormat.FileListSplit) split;
+            assertTrue(fileList.getUris().length <= 3);
+            files += fileList.getUris().length;
+            bytes += fileList.getLength();
+        }
+        assertEquals(tempFiles, files);
+        long expectedBytes = 0;
+        for (String uri : readInputs(inputs)) {
+            expectedBytes += fs.getFileStatus(new Path(uri)).getLen();
+        }
+        assertEquals(expectedBytes, bytes);
+
+        jobConf.setBoolean(DirectoryIngestMapper.DIRECTORY_BALANCED_SPLITS, true);
+        doTest(tempFiles);
+    }
+
+    @Test
+    public void testMaxContentBytes() throws Exception {
+        jobConf.set(DirectoryIngestMapper.DIRECTORY_ADD_SUBDIRECTORIES, "false");
+        jobConf.setLong(DirectoryIngestMapper.DIRECTORY_MAX_CONTENT_BYTES, 1);
+        List<String> results = doTest(tempFiles - 4);
+        for (String docStr : results) {
+            assertTrue(docStr.contains(DirectoryIngestMapper.FILE_LENGTH_FIELD + "="));
+        }
+    }
+
+    @Test
+    public void testProcessingBudgets() throws Exception {
+        jobConf.set(DirectoryIngestMapper.DIRECTORY_ADD_SUBDIRECTORIES, "false");
+        jobConf.setLong(ProcessingStage.TIMEOUT_MS, 60000);
+        jobConf.setLong(ProcessingStage.MAX_ALLOCATED_BYTES, 1024L * 1024 * 1024);
+        doTest(tempFiles - 4);
+    }
+
+    @Test
+    public void testSkipTypes() throws Exception {
+        jobConf.set(DirectoryIngestMapper.DIRECTORY_ADD_SUBDIRECTORIES, "false");
+        jobConf.set(ContentSniffer.SKIP_TYPES, "application/pdf");
+        List<String> results = doTest(tempFiles - 4 - 3);  // The 3 pdf files are skipped
+        for (String docStr : results) {
+            assertFalse(docStr.contains(".pdf"));
+        }
+        assertEquals(3, job.getCounters().findCounter(ContentSniffer.COUNTER_GROUP, ContentSniffer.SKIPPED).getValue());
+        assertEquals(0, job.getCounters().findCounter(BaseHadoopIngest.Counters.DOCS_CONVERT_FAILED).getValue());
+    }
+
+    @Test
+    public void testMetadataOnlyTypes() throws Exception {
+        jobConf.set(DirectoryIngestMapper.DIRECTORY_ADD_SUBDIRECTORIES, "false");
+        jobConf.set(ContentSniffer.METADATA_ONLY_TYPES, "application/pdf");
+        List<String> results = doTest(tempFiles - 4);
+        int metadataOnly = 0;
+        for (String docStr : results) {
+            if (docStr.contains(DirectoryIngestMapper.FILE_LENGTH_FIELD + "=")) {
+                assertTrue(docStr.contains(".pdf"));
+                metadataOnly++;
+            }
+        }
+        assertEquals(3, metadataOnly);
+        assertEquals(3, job.getCounters().findCounter(ContentSniffer.COUNTER_GROUP, ContentSniffer.METADATA_ONLY).getValue());
+    }
+
+    @Test
+    public void testDefaultMaxContentBytes() throws Exception {
+        assertEquals(DirectoryIngestMapper.DEFAULT_MAX_CONTENT_BYTES,
+                DirectoryIngestMapper.defaultMaxContentBytes(4L * 1024 * 1024 * 1024));
+        assertEquals(64L * 1024 * 1024, DirectoryIngestMapper.defaultMaxContentBytes(256L * 1024 * 1024));
+        assertEquals(DirectoryIngestMapper.DEFAULT_MAX_CONTENT_BYTES,
+                DirectoryIngestMapper.defaultMaxContentBytes(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testReadAtMost() throws Exception {
+        byte[] content = "The quick brown fox".getBytes(StandardCharsets.UTF_8);
+
+        assertTrue(Arrays.equals(content,
+                DirectoryIngestMapper.readAtMost(new ByteArrayInputStream(content), content.length)));
+        assertTrue(Arrays.equals(content,
+                DirectoryIngestMapper.readAtMost(new ByteArrayInputStream(content), 1024)));
+        assertNull(DirectoryIngestMapper.readAtMost(new ByteArrayInputStream(content), content.length - 1));
+    }
+
     private Configuration getDefaultDirectoryIngestMapperConfiguration() {
         Configuration conf = getBaseConfiguration();
         conf.set(COLLECTION, "collection");
@@ -74,9 +204,9 @@ public class DirectoryIngestMapperTest extends BaseMiniClusterTestCase {
         return conf;
     }
 
-    private void doTest(int expectedNumDocs) throws Exception {
+    private List<String> doTest(int expectedNumDocs) throws Exception {
         new DirectoryIngestMapper().getFixture().init(jobConf);
-        Job job = Job.getInstance(jobConf);
+        job = Job.getInstance(jobConf);
         job.setOutputKeyClass(Text.class);
         job.setOutputValueClass(LWDocumentWritable.class);
 
@@ -86,6 +216,22 @@ public class DirectoryIngestMapperTest extends BaseMiniClusterTestCase {
         for (String docStr : results) {
             assertNotNull(docStr);
         }
+        return results;
+    }
+
+    private List<String> readInputs(Path inputs) throws IOException {
+        List<String> uris = new ArrayList<String>();
+        SequenceFile.Reader reader = new SequenceFile.Reader(fs, inputs, jobConf);
+        try {
+            Text uri = new Text();
+            LongWritable length = new LongWritable();
+            while (reader.next(uri, length)) {
+                uris.add(uri.toString());
+            }
+        } finally {
+            reader.close();
+        }
+        return uris;
     }
 
     private int setupDir(FileSystem fs, Path base) throws URISyntaxException, IOException {
@@ -0,0 +1,122 @@
+package com.lucidworks.hadoop.ingest;
+
+import com.lucidworks.hadoop.ingest.util.GrokCompiler;
+import com.lucidworks.hadoop.ingest.util.GrokFilter;
+import com.lucidworks.hadoop.ingest.util.GrokPattern;
+import com.lucidworks.hadoop.ingest.util.LogstashConfigParser;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+
+public class GrokCompilerTest {
+
+  private GrokCompiler compiler;
+
+  @Before
+  public void setUp() {
+    compiler = GrokCompiler.withDefaultPatterns();
+  }
+
+  @Test
+  public void testNamedCaptures() {
+    GrokPattern pattern = compiler.compile("%{IP:ip} %{WORD:log_message}");
+    Matcher matcher = pattern.matcher("192.168.1.1 WORD__1 This is the rest of the message");
+
+    Assert.assertTrue(matcher.find());
+    Assert.assertEquals(2, pattern.getFieldCount());
+    Assert.assertEquals("192.168.1.1", pattern.getValue(matcher, "ip"));
+    Assert.assertEquals("WORD__1", pattern.getValue(matcher, "log_message"));
+  }
+
+  @Test
+  public void testNestedAndRegexNamedCaptures() {
+    GrokPattern pattern = compiler.compile("(?<pri>\\d+) %{SYSLOGPROG}");
+    Matcher matcher = pattern.matcher("34 su[1234]");
+
+    Assert.assertTrue(matcher.find());
+    Assert.assertEquals("34", pattern.getValue(matcher, "pri"));
+    Assert.assertEquals("su", pattern.getValue(matcher, "program"));
+    Assert.assertEquals("1234", pattern.getValue(matcher, "pid"));
+  }
+
+  @Test
+  public void testTypeConversion() {
+    GrokPattern pattern = compiler.compile("%{INT:count:int} %{NUMBER:ratio:float} %{WORD:word:int}");
+    Matcher matcher = pattern.matcher("42 0.5 abc");
+
+    Assert.assertTrue(matcher.find());
+    Assert.assertEquals(42, pattern.getValue(matcher, "count"));
+    Assert.assertEquals(0.5f, pattern.getValue(matcher, "ratio"));
+    // not a number, the raw value is kept
+    Assert.assertEquals("abc", pattern.getValue(matcher, "word"));
+  }
+
+  @Test
+  public void testCiscoPatterns() {
+    GrokPattern pattern = compiler.compile(
+        "%{CISCOTIMESTAMP:timestamp}( %{SYSLOGHOST:sysloghost})?: %%{CISCOTAG:ciscotag}: %{GREEDYDATA:cisco_message}");
+    Matcher matcher = pattern.matcher("Mar 31 2014 18:02:36: %ASA-5-106100: access-list inbound denied");
+
+    Assert.assertTrue(matcher.find());
+    Assert.assertEquals("Mar 31 2014 18:02:36", pattern.getValue(matcher, "timestamp"));
+    Assert.assertNull(pattern.getValue(matcher, "sysloghost"));
+    Assert.assertEquals("ASA-5-106100", pattern.getValue(matcher, "ciscotag"));
+    Assert.assertEquals("access-list inbound denied", pattern.getValue(matcher, "cisco_message"));
+  }
+
+  @Test
+  public void testAdditionalPatterns() {
+    compiler.addPatterns("# comment\n\nCUSTOMPATTERN %{IP} %{NUMBER}\n");
+    GrokPattern pattern = compiler.compile("%{CUSTOMPATTERN:custom_pattern}");
+    Matcher matcher = pattern.matcher("10.0.0.1 123");
+
+    Assert.assertTrue(matcher.find());
+    Assert.assertEquals("10.0.0.1 123", pattern.getValue(matcher, "custom_pattern"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownPattern() {
+    compiler.compile("%{NOT_A_PATTERN:field}");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRecursivePattern() {
+    compiler.addPattern("LOOP", "a%{LOOP}");
+    compiler.compile("%{LOOP}");
+  }
+
+  @Test
+  public void testParseFilters() {
+    String conf = "input {stdin {type => example}}\n" +
+        "filter {\n" +
+        "  # comment\n" +
+        "  grok {\n" +
+        "    match => { \"message\" => \"%{IP:ip} \\[%{WORD:log_message}\\]\" }\n" +
+        "    add_field => [\"received_from_field\", \"%{ip}\"]\n" +
+        "    patterns_dir => [\"/home/user/patterns/extra1.txt\", \"/home/user/patterns/extra2.txt\"]\n" +
+        "  }\n" +
+        "  if [type] == \"apache\" { mutate { remove_field => [\"message\"] } }\n" +
+        "  kv { source => \"m_data\" }\n" +
+        "}\n" +
+        "output {\n" +
+        "  stdout {debug => true codec => \"rubydebug\"}\n" +
+        "}";
+
+    List<LogstashConfigParser.Plugin> filters = LogstashConfigParser.parseFilters(conf);
+
+    Assert.assertEquals(2, filters.size());
+    Assert.assertEquals("grok", filters.get(0).getName());
+    Assert.assertEquals("kv", filters.get(1).getName());
+    Map<?, ?> match = (Map<?, ?>) filters.get(0).get("match");
+    // regex escapes are kept as written
+    Assert.assertEquals("%{IP:ip} \\[%{WORD:log_message}\\]", match.get("message"));
+    Assert.assertEquals(Arrays.asList("received_from_field", "%{ip}"), filters.get(0).get("add_field"));
+    Assert.assertEquals(Arrays.asList("/home/user/patterns/extra1.txt", "/home/user/patterns/extra2.txt"),
+        GrokFilter.getPatternsDirs(conf));
+  }
+}
@@ -69,6 +69,49 @@ public class GrokIngestMapperTest extends BaseMiniClusterTestCase {
         assertTrue(results.get(0).contains("tags=_grokparsefailure"));
     }
 
+    @Test
+    public void testIPWORDpatternNativeEngine() throws Exception {
+        jobInput.add("192.168.1.1 WORD__1 This is the rest of the message");
+
+        Configuration conf = getDefaultGrokIngestMapperConfiguration();
+        conf.set(GrokIngestMapper.GROK_ENGINE, GrokIngestMapper.NATIVE_GROK_ENGINE);
+        Path remotePath = copyLocalResourceToHdfs(LOCAL_IP_WORD_CONF_LOCATION,"IP-WORD.conf");
+        conf.set(GrokIngestMapper.GROK_CONFIG_PATH, remotePath.toUri().toString());
+        jobCacheUris.add(remotePath.toUri());
+        Job job = createJobBasedOnConfiguration(conf, GrokIngestMapper.class);
+        DistributedCacheHandler.addFileToCache((org.apache.hadoop.mapred.JobConf)job.getConfiguration(),
+                new Path(LOCAL_IP_WORD_CONF_LOCATION), GrokIngestMapper.GROK_CONFIG_PATH);
+        ((JobConf)job.getConfiguration()).set(GrokIngestMapper.GROK_URI, new Path(LOCAL_IP_WORD_CONF_LOCATION).toUri().toString());
+
+        List<String> results = runJobSuccessfully(job, jobInput, 1);
+
+        assertNumDocsProcessed(job, 1);
+        assertTrue(results.get(0).contains("ip=192.168.1.1"));
+        assertTrue(results.get(0).contains("log_message=WORD__1"));
+        assertTrue(results.get(0).contains("received_from_field=192.168.1.1"));
+        assertTrue(results.get(0).contains("message_field=WORD__1"));
+    }
+
+    @Test
+    public void testGrokFailNativeEngine() throws Exception {
+        jobInput.add("some non-matching string");
+
+        Configuration conf = getDefaultGrokIngestMapperConfiguration();
+        conf.set(GrokIngestMapper.GROK_ENGINE, GrokIngestMapper.NATIVE_GROK_ENGINE);
+        Path remotePath = copyLocalResourceToHdfs(LOCAL_IP_WORD_CONF_LOCATION,"IP-WORD.conf");
+        conf.set(GrokIngestMapper.GROK_CONFIG_PATH, remotePath.toUri().toString());
+        jobCacheUris.add(remotePath.toUri());
+        Job job = createJobBasedOnConfiguration(conf, GrokIngestMapper.class);
+        DistributedCacheHandler.addFileToCache((org.apache.hadoop.mapred.JobConf)job.getConfiguration(),
+                new Path(LOCAL_IP_WORD_CONF_LOCATION), GrokIngestMapper.GROK_CONFIG_PATH);
+        ((JobConf)job.getConfiguration()).set(GrokIngestMapper.GROK_URI, new Path(LOCAL_IP_WORD_CONF_LOCATION).toUri().toString());
+
+        List<String> results = runJobSuccessfully(job, jobInput, 1);
+
+        assertNumDocsProcessed(job, 1);
+        assertTrue(results.get(0).contains("tags=_grokparsefailure"));
+    }
+
     @Test
     public void testMonthDayYearGreedy() throws Exception {
         jobInput.add("Jan 05 2014 key1=value1 key2=value2 key3=value3");
@@ -0,0 +1,84 @@
+package com.lucidworks.hadoop.ingest;
+
+import com.lucidworks.hadoop.io.LWDocumentWritable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapreduce.Job;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.lucidworks.hadoop.utils.ConfigurationKeys.COLLECTION;
+import static com.lucidworks.hadoop.utils.ConfigurationKeys.ID_MODE;
+import static com.lucidworks.hadoop.utils.ConfigurationKeys.ZK_CONNECT;
+import static com.lucidworks.hadoop.utils.TestUtils.createLWDocumentWritable;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class IngestReducerTest extends BaseMiniClusterTestCase {
+
+    @Test
+    public void testDeduplicate() throws Exception {
+        jobInput.add("text 1");
+        jobInput.add("text 1");
+        jobInput.add("text 2");
+        Configuration conf = getBaseConfiguration();
+        conf.set(COLLECTION, "collection");
+        conf.set(ZK_CONNECT, "localhost:0000");
+        conf.set("idField", "id");
+        conf.set(RegexIngestMapper.REGEX, "(\\w+) (\\d+)");
+        conf.set(RegexIngestMapper.GROUPS_TO_FIELDS, "1=text,2=number");
+        // identical lines get the same id
+        conf.set(ID_MODE, "hash");
+        conf.set(IngestReducer.REDUCE_STAGES, DeduplicatingReduceStage.class.getName());
+        conf.set(DeduplicatingReduceStage.COUNT_FIELD, "copies");
+        Job job = createJobBasedOnConfiguration(conf, RegexIngestMapper.class);
+        ((JobConf) job.getConfiguration()).setReducerClass(IngestReducer.class);
+
+        List<String> results = runJobSuccessfully(job, jobInput, 2);
+
+        assertNumDocsProcessed(job, 3);
+        assertEquals(1, job.getCounters()
+            .findCounter(IngestReducer.COUNTER_GROUP, IngestReducer.DUPLICATES_DROPPED).getValue());
+        String all = results.toString();
+        assertTrue(all.contains("copies=2"));
+        assertTrue(all.contains("copies=1"));
+    }
+
+    @Test
+    public void testDeduplicateByVersion() throws Exception {
+        JobConf conf = new JobConf(false);
+        conf.set(DeduplicatingReduceStage.VERSION_FIELD, "version");
+        DeduplicatingReduceStage stage = new DeduplicatingReduceStage();
+        stage.configure(conf);
+
+        // numbers compare by value, whatever order the reducer gets the duplicates in
+        List<LWDocumentWritable> docs = new ArrayList<LWDocumentWritable>();
+        docs.add(createLWDocumentWritable("id", "version", "9", "body", "old"));
+        docs.add(createLWDocumentWritable("id", "version", "10", "body", "new"));
+        docs.add(createLWDocumentWritable("id", "body", "unversioned"));
+        docs.add(createLWDocumentWritable("id", "version", "2", "body", "older"));
+        List<LWDocumentWritable> kept = stage.process(new Text("id"), docs, Reporter.NULL);
+        assertEquals(1, kept.size());
+        assertEquals("new", kept.get(0).getLWDocument().getFirstFieldValue("body"));
+
+        // ISO timestamps compare as strings
+        docs = new ArrayList<LWDocumentWritable>();
+        docs.add(createLWDocumentWritable("id", "version", "2018-07-02T10:00:00Z", "body", "new"));
+        docs.add(createLWDocumentWritable("id", "version", "2018-06-30T23:00:00Z", "body", "old"));
+        kept = stage.process(new Text("id"), docs, Reporter.NULL);
+        assertEquals("new", kept.get(0).getLWDocument().getFirstFieldValue("body"));
+    }
+
+    @Test
+    public void testCompareVersions() throws Exception {
+        assertTrue(DeduplicatingReduceStage.compareVersions("10", "9") > 0);
+        assertTrue(DeduplicatingReduceStage.compareVersions(2L, "1.5") > 0);
+        assertTrue(DeduplicatingReduceStage.compareVersions("b", "a") > 0);
+        assertTrue(DeduplicatingReduceStage.compareVersions(null, "1") < 0);
+        assertEquals(0, DeduplicatingReduceStage.compareVersions(null, null));
+    }
+}
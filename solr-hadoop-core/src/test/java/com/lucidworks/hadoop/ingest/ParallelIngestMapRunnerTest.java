@@ -0,0 +1,223 @@
+package com.lucidworks.hadoop.ingest;
+
+import com.lucidworks.hadoop.io.LWDocument;
+import com.lucidworks.hadoop.io.LWDocumentWritable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapreduce.Job;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static com.lucidworks.hadoop.utils.ConfigurationKeys.COLLECTION;
+import static com.lucidworks.hadoop.utils.ConfigurationKeys.ID_MODE;
+import static com.lucidworks.hadoop.utils.ConfigurationKeys.ZK_CONNECT;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ParallelIngestMapRunnerTest extends BaseMiniClusterTestCase {
+
+    @Test
+    public void test() throws Exception {
+        int numRecords = 500;
+        for (int i = 0; i < numRecords; i++) {
+            jobInput.add("line " + i);
+        }
+        Configuration conf = getBaseConfiguration();
+        conf.set(COLLECTION, "collection");
+        conf.set(ZK_CONNECT, "localhost:0000");
+        conf.set("idField", "id");
+        conf.set(RegexIngestMapper.REGEX, "(\\w+) (\\d+)");
+        conf.set(RegexIngestMapper.GROUPS_TO_FIELDS, "1=text,2=number");
+        conf.set(ID_MODE, "offset");
+        conf.setInt(ParallelIngestMapRunner.MAP_THREADS, 4);
+        Job job = createJobBasedOnConfiguration(conf, RegexIngestMapper.class);
+        ((JobConf) job.getConfiguration()).setMapRunnerClass(ParallelIngestMapRunner.class);
+
+        List<String> results = runJobSuccessfully(job, jobInput, numRecords);
+
+        assertNumDocsProcessed(job, numRecords);
+        Set<String> ids = new HashSet<String>();
+        for (String result : results) {
+            ids.add(result.substring(0, result.indexOf('\t')));
+        }
+        assertEquals("Every line has its own document", numRecords, ids.size());
+        String all = results.toString();
+        assertTrue(all.contains("text=line, number=42"));
+        assertTrue(all.contains("text=line, number=499"));
+    }
+
+    @Test
+    public void testRecordOrder() throws Exception {
+        List<String> lines = new ArrayList<String>();
+        for (int i = 0; i < 200; i++) {
+            lines.add("line-" + i);
+        }
+        JobConf conf = createRunnerConf(SlowMapper.class, 4);
+        final List<String> ids = new ArrayList<String>();
+
+        run(conf, lines, new OutputCollector<Text, LWDocumentWritable>() {
+            @Override
+            public void collect(Text key, LWDocumentWritable value) {
+                ids.add(key.toString());
+            }
+        });
+
+        assertEquals("The documents are collected in the order of the records", lines, ids);
+    }
+
+    @Test
+    public void testFailingRecord() throws Exception {
+        List<String> lines = new ArrayList<String>();
+        for (int i = 0; i < 100; i++) {
+            lines.add(i == 42 ? SlowMapper.FAIL : "line-" + i);
+        }
+        JobConf conf = createRunnerConf(SlowMapper.class, 4);
+        final List<String> ids = new ArrayList<String>();
+
+        try {
+            run(conf, lines, new OutputCollector<Text, LWDocumentWritable>() {
+                @Override
+                public void collect(Text key, LWDocumentWritable value) {
+                    ids.add(key.toString());
+                }
+            });
+            fail("The failure of a record fails the task");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains(SlowMapper.FAIL));
+        }
+        assertFalse(ids.contains("line-43"));
+    }
+
+    @Test
+    public void testSerialFallbackKeepsConfiguration() throws Exception {
+        JobConf conf = createRunnerConf(SerialMapper.class, 4);
+        conf.setBoolean(AbstractIngestMapper.REUSE_WRITABLES, true);
+        SerialMapper.reuseWritables = false;
+
+        run(conf, Collections.singletonList("line"), new OutputCollector<Text, LWDocumentWritable>() {
+            @Override
+            public void collect(Text key, LWDocumentWritable value) {
+            }
+        });
+
+        assertTrue(SerialMapper.reuseWritables);
+    }
+
+    private JobConf createRunnerConf(Class<?> mapperClass, int threads) {
+        JobConf conf = new JobConf(getBaseConfiguration());
+        conf.set(COLLECTION, "collection");
+        conf.set(ZK_CONNECT, "localhost:0000");
+        conf.setMapperClass((Class) mapperClass);
+        conf.setInt(ParallelIngestMapRunner.MAP_THREADS, threads);
+        return conf;
+    }
+
+    private static void run(JobConf conf, final List<String> lines, OutputCollector<Text, LWDocumentWritable> output)
+        throws IOException {
+        ParallelIngestMapRunner<LongWritable, Text> runner = new ParallelIngestMapRunner<LongWritable, Text>();
+        runner.configure(conf);
+        runner.run(new RecordReader<LongWritable, Text>() {
+            private int next = 0;
+
+            @Override
+            public boolean next(LongWritable key, Text value) {
+                if (next == lines.size()) {
+                    return false;
+                }
+                key.set(next);
+                value.set(lines.get(next++));
+                return true;
+            }
+
+            @Override
+            public LongWritable createKey() {
+                return new LongWritable();
+            }
+
+            @Override
+            public Text createValue() {
+                return new Text();
+            }
+
+            @Override
+            public long getPos() {
+                return next;
+            }
+
+            @Override
+            public void close() {
+            }
+
+            @Override
+            public float getProgress() {
+                return lines.isEmpty() ? 1 : (float) next / lines.size();
+            }
+        }, output, Reporter.NULL);
+    }
+
+    /**
+     * One document per line, with the line as id, converted after a random delay so the records
+     * finish out of order
+     */
+    public static class SlowMapper extends AbstractIngestMapper<LongWritable, Text> {
+        static final String FAIL = "fail";
+        private final Random random = new Random();
+
+        private final AbstractJobFixture fixture = new AbstractJobFixture() {
+            @Override
+            public void init(JobConf conf) throws IOException {
+            }
+        };
+
+        @Override
+        public AbstractJobFixture getFixture() {
+            return fixture;
+        }
+
+        @Override
+        protected LWDocument[] toDocuments(LongWritable key, Text value, Reporter reporter, Configuration conf)
+            throws IOException {
+            try {
+                Thread.sleep(random.nextInt(5));
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            if (FAIL.equals(value.toString())) {
+                throw new IOException("Unable to convert " + FAIL);
+            }
+            return new LWDocument[] {createDocument(value.toString(), null)};
+        }
+    }
+
+    /**
+     * Records the configuration it runs with
+     */
+    public static class SerialMapper extends SlowMapper {
+        static volatile boolean reuseWritables;
+
+        @Override
+        public void configure(JobConf conf) {
+            super.configure(conf);
+            reuseWritables = conf.getBoolean(REUSE_WRITABLES, false);
+        }
+
+        @Override
+        public boolean supportsParallelMap() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.lucidworks.hadoop.ingest;
+
+import com.lucidworks.hadoop.LucidCounters;
+import com.lucidworks.hadoop.io.LWDocument;
+import com.lucidworks.hadoop.io.LWDocumentProvider;
+import org.apache.hadoop.mapred.Counters;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.Reporter;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ProcessingStageTest {
+
+  private static final String SLOW = "slow";
+  private static final String STUCK = "stuck";
+  private static final String OOM = "oom";
+
+  private final Counters counters = new Counters();
+  private final Reporter reporter = new CountingReporter();
+  // releases the threads ignoring their interruption
+  private volatile boolean release = false;
+  private ProcessingStage stage;
+
+  @After
+  public void tearDown() {
+    release = true;
+    if (stage != null) {
+      stage.close();
+    }
+  }
+
+  @Test
+  public void testTimeout() throws Exception {
+    JobConf conf = new JobConf(false);
+    conf.setLong(ProcessingStage.TIMEOUT_MS, 1);
+    stage = new TestStage(conf);
+
+    assertEquals(0, stage.process(LWDocumentProvider.createDocument(SLOW, null), reporter).length);
+    assertEquals(1, counters.findCounter(LucidCounters.TIKA_EXTRACT_FAILED).getValue());
+
+    // the next document is processed by a new worker
+    LWDocument[] processed = stage.process(LWDocumentProvider.createDocument("fast", null), reporter);
+    assertEquals(1, processed.length);
+    assertEquals("fast", processed[0].getId());
+    assertEquals(1, counters.findCounter(LucidCounters.TIKA_EXTRACT_FAILED).getValue());
+  }
+
+  @Test
+  public void testOutOfMemory() throws Exception {
+    JobConf conf = new JobConf(false);
+    stage = new TestStage(conf);
+    assertEquals(0, stage.process(LWDocumentProvider.createDocument(OOM, null), reporter).length);
+
+    conf.setLong(ProcessingStage.TIMEOUT_MS, 60000);
+    stage = new TestStage(conf);
+    assertEquals(0, stage.process(LWDocumentProvider.createDocument(OOM, null), reporter).length);
+
+    assertEquals(2, counters.findCounter(LucidCounters.TIKA_EXTRACT_FAILED).getValue());
+    assertEquals(1, stage.process(LWDocumentProvider.createDocument("fast", null), reporter).length);
+  }
+
+  @Test
+  public void testAbandonedThreadsLimit() throws Exception {
+    JobConf conf = new JobConf(false);
+    conf.setLong(ProcessingStage.TIMEOUT_MS, 1);
+    conf.setInt(ProcessingStage.MAX_ABANDONED_THREADS, 1);
+    stage = new TestStage(conf);
+
+    // a parser noticing the interruption doesn't count against the limit
+    for (int i = 0; i < 3; i++) {
+      assertEquals(0, stage.process(LWDocumentProvider.createDocument(SLOW, null), reporter).length);
+    }
+    assertEquals(0, stage.process(LWDocumentProvider.createDocument(STUCK, null), reporter).length);
+    try {
+      stage.process(LWDocumentProvider.createDocument(STUCK, null), reporter);
+      fail("The task fails once too many abandoned threads are running");
+    } catch (IOException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains(ProcessingStage.MAX_ABANDONED_THREADS));
+    }
+  }
+
+  /**
+   * Sleeps on slow documents, spins ignoring interruptions on stuck ones
+   */
+  private class TestStage extends ProcessingStage {
+    TestStage(JobConf conf) {
+      super(conf);
+    }
+
+    @Override
+    protected LWDocument[] processIfNeeded(LWDocument doc) throws IOException {
+      if (SLOW.equals(doc.getId())) {
+        try {
+          Thread.sleep(60000);
+        } catch (InterruptedException e) {
+          throw new IOException(e);
+        }
+      } else if (STUCK.equals(doc.getId())) {
+        while (!release) {
+          Thread.yield();
+        }
+      } else if (OOM.equals(doc.getId())) {
+        throw new OutOfMemoryError("Test");
+      }
+      return new LWDocument[] {doc};
+    }
+  }
+
+  private class CountingReporter implements Reporter {
+    @Override
+    public void setStatus(String status) {
+    }
+
+    @Override
+    public Counters.Counter getCounter(Enum<?> name) {
+      return counters.findCounter(name);
+    }
+
+    @Override
+    public Counters.Counter getCounter(String group, String name) {
+      return counters.findCounter(group, name);
+    }
+
+    @Override
+    public void incrCounter(Enum<?> key, long amount) {
+      counters.incrCounter(key, amount);
+    }
+
+    @Override
+    public void incrCounter(String group, String counter, long amount) {
+      counters.incrCounter(group, counter, amount);
+    }
+
+    @Override
+    public InputSplit getInputSplit() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public float getProgress() {
+      return 0;
+    }
+
+    @Override
+    public void progress() {
+    }
+  }
+}
@@ -13,11 +13,16 @@ import org.junit.Test;
 
 import java.io.File;
 import java.net.URI;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
+import java.util.regex.Matcher;
 
 import static com.lucidworks.hadoop.utils.ConfigurationKeys.COLLECTION;
+import static com.lucidworks.hadoop.utils.ConfigurationKeys.ID_MODE;
 import static com.lucidworks.hadoop.utils.ConfigurationKeys.ZK_CONNECT;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
@@ -64,6 +69,81 @@ public class RegexIngestMapperTest extends BaseMiniClusterTestCase {
         assertNotNull("document is null", results.get(0));
     }
 
+    @Test
+    public void testNonAscii() throws Exception {
+        // matched on the decoded String instead of the bytes
+        jobInput.add("caf\u00e9 1 ascii 2");
+        Configuration conf = getDefaultRegexIngestMapperConfiguration();
+        conf.set(RegexIngestMapper.REGEX, "(\\S+)\\s+(\\d+)");
+        conf.set(RegexIngestMapper.GROUPS_TO_FIELDS, "1=text,2=number");
+        Job job = createJobBasedOnConfiguration(conf, RegexIngestMapper.class);
+
+        List<String> results = runJobSuccessfully(job, jobInput, 1);
+
+        assertNumDocsProcessed(job, 1);
+        assertTrue(results.get(0), results.get(0).contains("text=[caf\u00e9, ascii], number=[1, 2]"));
+    }
+
+    @Test
+    public void testMultiplePatterns() throws Exception {
+        jobInput.add("GET /index.html 200");
+        jobInput.add("ERROR [db] connection lost");
+        jobInput.add("something else");
+        Configuration conf = getDefaultRegexIngestMapperConfiguration();
+        conf.set(RegexIngestMapper.REGEX, "^GET (\\S+) (\\d+)");
+        conf.set(RegexIngestMapper.GROUPS_TO_FIELDS, "1=url,2=status");
+        conf.set(RegexIngestMapper.REGEX + ".1", "^ERROR \\[(\\w+)\\] (.*)");
+        conf.set(RegexIngestMapper.GROUPS_TO_FIELDS + ".1", "1=component,2=message");
+        conf.setBoolean(RegexIngestMapper.REGEX_MATCH, true);
+        Job job = createJobBasedOnConfiguration(conf, RegexIngestMapper.class);
+
+        List<String> results = runJobSuccessfully(job, jobInput, 3);
+
+        assertNumDocsProcessed(job, 3);
+        String all = results.toString();
+        assertTrue(all, all.contains("url=/index.html, status=200"));
+        assertTrue(all, all.contains("component=db, message=connection lost"));
+        Assert.assertFalse(all, all.contains("url=ERROR"));
+    }
+
+    @Test
+    public void testProcessMatchOverride() throws Exception {
+        jobInput.add("text 1");
+        jobInput.add("other 2 words");
+        Configuration conf = getDefaultRegexIngestMapperConfiguration();
+        conf.set(RegexIngestMapper.REGEX, "^(\\w+) (\\d+)$");
+        conf.set(RegexIngestMapper.GROUPS_TO_FIELDS, "1=text,2=number");
+        conf.set(RegexIngestMapper.REGEX + ".1", "^(\\w+) (\\d+) (\\w+)$");
+        conf.set(RegexIngestMapper.GROUPS_TO_FIELDS + ".1", "1=text,3=words");
+        Job job = createJobBasedOnConfiguration(conf, UpperCaseRegexIngestMapper.class);
+
+        List<String> results = runJobSuccessfully(job, jobInput, 2);
+
+        assertNumDocsProcessed(job, 2);
+        String all = results.toString();
+        assertTrue(all, all.contains("text=TEXT"));
+        assertTrue(all, all.contains("number=1"));
+        // the group mapping is the one of the regex that matched
+        assertTrue(all, all.contains("text=OTHER"));
+        assertTrue(all, all.contains("words=WORDS"));
+    }
+
+    @Test
+    public void testIdModeLocale() throws Exception {
+        Locale locale = Locale.getDefault();
+        // "i" upper cases to a dotted capital I in Turkish
+        Locale.setDefault(new Locale("tr", "TR"));
+        try {
+            Configuration conf = new Configuration(false);
+            conf.set(ID_MODE, "timestamp");
+            Assert.assertEquals(DocumentIdMode.TIMESTAMP, DocumentIdMode.fromConfiguration(conf));
+            conf.set(ID_MODE, "hash");
+            Assert.assertEquals(DocumentIdMode.HASH, DocumentIdMode.fromConfiguration(conf));
+        } finally {
+            Locale.setDefault(locale);
+        }
+    }
+
     @Test
     public void testBad() throws Exception {
         Configuration conf = getDefaultRegexIngestMapperConfiguration();
@@ -84,6 +164,10 @@ public class RegexIngestMapperTest extends BaseMiniClusterTestCase {
         conf.set(RegexIngestMapper.GROUPS_TO_FIELDS, "0=foo,1");
         assertMapperConfigurationFailsWithMessage(conf, "Malformed com.lucidworks.hadoop.ingest.RegexIngestMapper.groups_to_fields");
 
+        conf.set(RegexIngestMapper.GROUPS_TO_FIELDS, "0=foo");
+        conf.set(RegexIngestMapper.REGEX + ".1", "\\d+");// second regex without a group mapping
+        assertMapperConfigurationFailsWithMessage(conf, "com.lucidworks.hadoop.ingest.RegexIngestMapper.groups_to_fields.1 property must not be null or empty");
+
         RegexIngestMapper mapper = new RegexIngestMapper();
         LWDocument[] docs = mapper.toDocuments(null, null, null, null);
         Assert.assertNull(docs);
@@ -104,6 +188,42 @@ public class RegexIngestMapperTest extends BaseMiniClusterTestCase {
         assertNotNull("document is null", results.get(0));
     }
 
+    @Test
+    public void testOffsetIds() throws Exception {
+        jobInput.add("text 1");
+        jobInput.add("text 2");
+        Configuration conf = getDefaultRegexIngestMapperConfiguration();
+        conf.set(ID_MODE, "offset");
+        Job job = createJobBasedOnConfiguration(conf, RegexIngestMapper.class);
+
+        List<String> results = runJobSuccessfully(job, jobInput, 2);
+
+        assertNumDocsProcessed(job, 2);
+        Set<String> ids = new HashSet<String>();
+        for (String result : results) {
+            ids.add(result.substring(0, result.indexOf('\t')).replaceFirst(".*-", ""));
+        }
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("0", "7")), ids);
+    }
+
+    @Test
+    public void testHashIds() throws Exception {
+        jobInput.add("text 1");
+        jobInput.add("text 1");
+        jobInput.add("text 2");
+        Configuration conf = getDefaultRegexIngestMapperConfiguration();
+        conf.set(ID_MODE, "hash");
+        Job job = createJobBasedOnConfiguration(conf, RegexIngestMapper.class);
+
+        List<String> results = runJobSuccessfully(job, jobInput, 3);
+
+        assertNumDocsProcessed(job, 3);
+        Set<String> ids = new HashSet<String>();
+        for (String result : results) {
+            ids.add(result.substring(0, result.indexOf('\t')));
+        }
+        Assert.assertEquals("identical lines get the same id", 2, ids.size());
+    }
 
     private void loadFrankensteinDataFromSequenceFile(Configuration conf) throws Exception {
         final String sequenceFilePathSubstring = "sequence" + File.separator + "frankenstein_text_text.seq";
@@ -138,4 +258,13 @@ public class RegexIngestMapperTest extends BaseMiniClusterTestCase {
                     e.getMessage().startsWith(expectedMessage));
         }
     }
+
+    public static class UpperCaseRegexIngestMapper extends RegexIngestMapper {
+        @Override
+        protected void processMatch(LWDocument doc, Matcher matcher) {
+            for (Map.Entry<Integer, String> entry : groupToFields.entrySet()) {
+                doc.addField(entry.getValue(), matcher.group(entry.getKey()).toUpperCase(Locale.ROOT));
+            }
+        }
+    }
 }
@@ -0,0 +1,64 @@
+package com.lucidworks.hadoop.ingest;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.solr.common.cloud.DocRouter;
+import org.apache.solr.common.cloud.HashBasedRouter;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ShardPartitionerTest {
+
+  private static final int SHARDS = 4;
+
+  @Test
+  public void testOneReducerPerShard() throws Exception {
+    DocRouter router = DocRouter.getDocRouter("compositeId");
+    List<DocRouter.Range> ranges = router.partitionRange(SHARDS, router.fullRange());
+    ShardPartitioner partitioner = createPartitioner(ranges);
+
+    for (int i = 0; i < 1000; i++) {
+      String id = "doc-" + i;
+      int hash = ((HashBasedRouter) router).sliceHash(id, null, null, null);
+      int partition = partitioner.getPartition(new Text(id), null, SHARDS);
+      assertTrue(id, ranges.get(partition).includes(hash));
+    }
+    // documents sharing a route prefix go to the same shard, and so the same reducer
+    assertEquals(partitioner.getPartition(new Text("tenant1!a"), null, SHARDS),
+        partitioner.getPartition(new Text("tenant1!b"), null, SHARDS));
+  }
+
+  @Test
+  public void testReducersPerShard() throws Exception {
+    DocRouter router = DocRouter.getDocRouter("compositeId");
+    List<DocRouter.Range> ranges = router.partitionRange(SHARDS, router.fullRange());
+    ShardPartitioner partitioner = createPartitioner(ranges);
+
+    for (int i = 0; i < 1000; i++) {
+      Text id = new Text("doc-" + i);
+      int shard = partitioner.getPartition(id, null, SHARDS);
+      // two reducers per shard
+      int partition = partitioner.getPartition(id, null, 2 * SHARDS);
+      assertEquals(shard, partition / 2);
+      // two shards per reducer
+      assertEquals(shard % 2, partitioner.getPartition(id, null, 2));
+    }
+  }
+
+  private static ShardPartitioner createPartitioner(List<DocRouter.Range> ranges) {
+    JobConf conf = new JobConf(false);
+    conf.set(ShardPartitioner.ROUTER, "compositeId");
+    String[] values = new String[ranges.size()];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = ranges.get(i).toString();
+    }
+    conf.setStrings(ShardPartitioner.RANGES, values);
+    ShardPartitioner partitioner = new ShardPartitioner();
+    partitioner.configure(conf);
+    return partitioner;
+  }
+}
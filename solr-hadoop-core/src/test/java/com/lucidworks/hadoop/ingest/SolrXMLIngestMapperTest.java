@@ -20,6 +20,7 @@ import static com.lucidworks.hadoop.utils.ConfigurationKeys.COLLECTION;
 import static com.lucidworks.hadoop.utils.ConfigurationKeys.ZK_CONNECT;
 import static junit.framework.Assert.fail;
 import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
 import static org.junit.Assert.assertNotNull;
 
 public class SolrXMLIngestMapperTest extends BaseMiniClusterTestCase {
@@ -47,6 +48,53 @@ public class SolrXMLIngestMapperTest extends BaseMiniClusterTestCase {
         assertNumDocsProcessed(job, numDocsExpectedFromSeqFile);
     }
 
+    @Test
+    public void testAtomicUpdates() throws Exception {
+        jobInput.add("<add><doc boost=\"2.0\">"
+                + "<field name=\"id\">doc1</field>"
+                + "<field name=\"count\" update=\"inc\">5</field>"
+                + "<field name=\"tags\" update=\"add\">a</field>"
+                + "<field name=\"tags\" update=\"add\">b</field>"
+                + "<field name=\"gone\" update=\"set\" null=\"true\"/>"
+                + "<field name=\"title\" boost=\"3\">title</field>"
+                + "</doc></add>");
+
+        Configuration conf = getDefaultSolrXmlMapperConfiguration();
+        Job job = createJobBasedOnConfiguration(conf, SolrXMLIngestMapper.class);
+        final List<String> results = runJobSuccessfully(job, jobInput, 1);
+
+        assertNumDocsProcessed(job, 1);
+        final String doc = results.get(0);
+        assertTrue(doc, doc.contains("title=title"));
+        assertTrue(doc, doc.contains("count={inc=5}"));
+        assertTrue(doc, doc.contains("tags={add=[a, b]}"));
+        assertTrue(doc, doc.contains("gone={set=null}"));
+        assertEquals(2, job.getCounters().findCounter(SolrXMLIngestMapper.COUNTER_GROUP,
+                SolrXMLIngestMapper.BOOSTS_IGNORED).getValue());
+    }
+
+    @Test
+    public void testTruncatedAdd() throws Exception {
+        // the documents completed before the error are indexed
+        jobInput.add("<add>"
+                + "<doc><field name=\"id\">doc1</field></doc>"
+                + "<doc><field name=\"id\">doc2</field></doc>"
+                + "<doc><field name=\"id\">doc3</fie");
+        // no document completed, a conversion failure
+        jobInput.add("<add><doc><field name=\"id\">doc4</field>");
+
+        Configuration conf = getDefaultSolrXmlMapperConfiguration();
+        Job job = createJobBasedOnConfiguration(conf, SolrXMLIngestMapper.class);
+        final List<String> results = runJobSuccessfully(job, jobInput, 2);
+
+        assertNumDocsProcessed(job, 2);
+        String all = results.toString();
+        assertTrue(all, all.contains("doc1") && all.contains("doc2"));
+        assertEquals(2, job.getCounters().findCounter(SolrXMLIngestMapper.COUNTER_GROUP,
+                SolrXMLIngestMapper.PARSE_ERRORS).getValue());
+        assertEquals(1, job.getCounters().findCounter(BaseHadoopIngest.Counters.DOCS_CONVERT_FAILED).getValue());
+    }
+
     @Test
     public void solrXmlLoaderTest() throws Exception {
         SolrXMLIngestMapper.SolrXMLLoader loader = new SolrXMLIngestMapper().createXmlLoader("foo", "id");
@@ -77,6 +125,27 @@ public class SolrXMLIngestMapperTest extends BaseMiniClusterTestCase {
         }
     }
 
+    @Test
+    public void solrXmlLoaderStreamingTest() throws Exception {
+        SolrXMLIngestMapper.SolrXMLLoader loader = new SolrXMLIngestMapper().createXmlLoader("foo", "id");
+        String xml = "<update>"
+                + "<doc><field name=\"name\">not in an add</field></doc>"
+                + "<add><doc><field name=\"name\">one</field></doc></add>"
+                + "<add><doc><field name=\"name\">two</field></doc></add>"
+                + "</update>";
+
+        final List<String> ids = new ArrayList<String>();
+        int count = loader.readDocs(new ByteArrayInputStream(xml.getBytes("UTF-8")), "junk",
+                new AbstractIngestMapper.DocumentConsumer() {
+                    @Override
+                    public void accept(LWDocument doc) {
+                        ids.add(doc.getId());
+                    }
+                });
+        assertEquals(2, count);
+        assertEquals(Arrays.asList("junk0", "junk1"), ids);
+    }
+
     private Configuration getDefaultSolrXmlMapperConfiguration() {
         Configuration conf = getBaseConfiguration();
         conf.set(COLLECTION, "collection");
@@ -1,5 +1,6 @@
 package com.lucidworks.hadoop.ingest;
 
+import com.lucidworks.hadoop.ingest.util.ContentSniffer;
 import edu.cmu.lemurproject.WarcFileInputFormat;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
@@ -7,10 +8,12 @@ import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapreduce.Job;
 import org.junit.Test;
 
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 
 import static com.lucidworks.hadoop.utils.ConfigurationKeys.COLLECTION;
 import static com.lucidworks.hadoop.utils.ConfigurationKeys.ZK_CONNECT;
+import static org.junit.Assert.assertEquals;
 
 public class WarcIngestMapperTest extends BaseMiniClusterTestCase {
 
@@ -32,6 +35,20 @@ public class WarcIngestMapperTest extends BaseMiniClusterTestCase {
         results.get(3).contains("id=<urn:uuid:f584c023-8703-4551-8952-378427f0333d>");
     }
 
+    @Test
+    public void testPayloadOffset() throws Exception {
+        String headers = "HTTP/1.1 200 OK\r\nContent-Type: application/pdf\r\n\r\n";
+        byte[] response = (headers + "%PDF-1.5").getBytes(StandardCharsets.US_ASCII);
+        int payload = WarcIngestMapper.payloadOffset(response);
+        assertEquals(headers.length(), payload);
+        assertEquals("application/pdf", new ContentSniffer(new Configuration(false))
+                .detect(response, payload, response.length - payload, "http://host/page"));
+
+        // not an HTTP message, or one without the end of its headers
+        assertEquals(0, WarcIngestMapper.payloadOffset("%PDF-1.5".getBytes(StandardCharsets.US_ASCII)));
+        assertEquals(0, WarcIngestMapper.payloadOffset("HTTP/1.1 200 OK\r\n".getBytes(StandardCharsets.US_ASCII)));
+    }
+
     private Configuration getDefaultWarcIngestMapperConfiguration() {
         Configuration conf = getBaseConfiguration();
         conf.set("io.serializations", "com.lucidworks.hadoop.io.impl.LWMockSerealization");
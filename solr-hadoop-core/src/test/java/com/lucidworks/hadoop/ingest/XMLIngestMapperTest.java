@@ -1,8 +1,10 @@
 package com.lucidworks.hadoop.ingest;
 
 import com.lucidworks.hadoop.cache.DistributedCacheHandler;
+import com.lucidworks.hadoop.io.ScanningXMLInputFormat;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapreduce.Job;
 import org.junit.Test;
 
@@ -10,6 +12,7 @@ import java.util.List;
 
 import static com.lucidworks.hadoop.utils.ConfigurationKeys.COLLECTION;
 import static com.lucidworks.hadoop.utils.ConfigurationKeys.ZK_CONNECT;
+import static junit.framework.TestCase.assertEquals;
 import static junit.framework.TestCase.assertTrue;
 
 public class XMLIngestMapperTest extends BaseMiniClusterTestCase {
@@ -55,6 +58,106 @@ public class XMLIngestMapperTest extends BaseMiniClusterTestCase {
         assertTrue("Failed to extract 'p_attr' from second doc", doc2.contains("p_attr=yo"));
     }
 
+    @Test
+    public void testStreaming() throws Exception {
+        jobInput.add(TEST_XML);
+        Configuration conf = getBaseConfiguration();
+        conf.set(COLLECTION, "collection");
+        conf.set(ZK_CONNECT, "localhost:0000");
+        conf.set("lww.xml.docXPathExpr", "/root/dok[@id]");
+        conf.set("lww.xml.idXPathExpr", "@id");
+        conf.set("lww.xml.includeParentAttrsPrefix", "p_");
+        conf.setBoolean(XMLIngestMapper.LWW_XML_STREAMING, true);
+        Job job = createJobBasedOnConfiguration(conf, XMLIngestMapper.class);
+
+        final List<String> results = runJobSuccessfully(job, jobInput, 2);
+
+        assertNumDocsProcessed(job, 2);
+        final String doc1 = results.get(0);
+        assertTrue("Failed to extract 'id' from first doc", doc1.contains("id=1"));
+        assertTrue("Failed to extract 'text' from first doc", doc1.contains("text=this is a test"));
+        assertTrue("Failed to extract 'child1.foo' from first doc", doc1.contains("child1.foo=bar"));
+        assertTrue("Failed to extract 'int' from first doc", doc1.contains("int=5150"));
+        assertTrue("Failed to extract 'p_attr' from first doc", doc1.contains("p_attr=yo"));
+        final String doc2 = results.get(1);
+        assertTrue("Failed to extract 'id' from second doc", doc2.contains("id=2"));
+        assertTrue("Failed to extract 'text' from second doc", doc2.contains("text=this is another test"));
+        assertTrue("Failed to extract 'child1.foo' from second doc", doc2.contains("child1.foo=baz"));
+    }
+
+    @Test
+    public void testStreamingXslt() throws Exception {
+        jobInput.add(TEST_XML);
+        Configuration conf = getDefaultXmlMapperConfiguration();
+        // the XSLt output is consumed as SAX events, no DOM is built
+        conf.setBoolean(XMLIngestMapper.LWW_XML_STREAMING, true);
+        Job job = createJobBasedOnConfiguration(conf, XMLIngestMapper.class);
+        DistributedCacheHandler.addFileToCache((org.apache.hadoop.mapred.JobConf)job.getConfiguration(),
+                new Path(XSLT_FILE_LOCATION), "lww.xslt");
+
+        final List<String> results = runJobSuccessfully(job, jobInput, 2);
+
+        assertNumDocsProcessed(job, 2);
+        final String doc1 = results.get(0);
+        assertTrue("Failed to extract 'id' from first doc", doc1.contains("id=1"));
+        assertTrue("Failed to extract 'text' from first doc", doc1.contains("text=this is a test"));
+        assertTrue("Failed to extract 'child1.foo' from first doc", doc1.contains("child1.foo=bar"));
+        assertTrue("Failed to extract 'p_attr' from first doc", doc1.contains("p_attr=yo"));
+        final String doc2 = results.get(1);
+        assertTrue("Failed to extract 'id' from second doc", doc2.contains("id=2"));
+        assertTrue("Failed to extract 'int' from second doc", doc2.contains("int=5151"));
+    }
+
+    @Test
+    public void testFragment() throws Exception {
+        // cut inside the start and end tags of the record, it gets wrapped in <...>
+        jobInput.add(TEST_XML.substring(1, TEST_XML.length() - 1));
+        Configuration conf = getBaseConfiguration();
+        conf.set(COLLECTION, "collection");
+        conf.set(ZK_CONNECT, "localhost:0000");
+        conf.set("lww.xml.docXPathExpr", "//dok");
+        conf.set("lww.xml.idXPathExpr", "@id");
+        Job job = createJobBasedOnConfiguration(conf, XMLIngestMapper.class);
+
+        final List<String> results = runJobSuccessfully(job, jobInput, 2);
+
+        assertNumDocsProcessed(job, 2);
+        assertTrue("Failed to extract 'text' from first doc", results.get(0).contains("text=this is a test"));
+        assertTrue("Failed to extract 'text' from second doc", results.get(1).contains("text=this is another test"));
+    }
+
+    @Test
+    public void testScanningInputFormat() throws Exception {
+        int numRecords = 100;
+        jobInput.add("<root attr='yo'>");
+        for (int i = 0; i < numRecords; i++) {
+            jobInput.add("  <dok id='" + i + "'><text>record " + i + "</text></dok>");
+        }
+        jobInput.add("</root>");
+        Configuration conf = getBaseConfiguration();
+        conf.set(COLLECTION, "collection");
+        conf.set(ZK_CONNECT, "localhost:0000");
+        conf.set("lww.xml.docXPathExpr", "/dok");
+        conf.set("lww.xml.idXPathExpr", "@id");
+        conf.set("lww.xml.start", "<dok ");
+        conf.set("lww.xml.end", "</dok>");
+        conf.setInt(ScanningXMLInputFormat.BUFFER_SIZE, 64); // records span reads
+        conf.setInt("mapreduce.job.maps", 4); // and splits
+        Job job = createJobBasedOnConfiguration(conf, XMLIngestMapper.class);
+        ((JobConf) job.getConfiguration()).setInputFormat(ScanningXMLInputFormat.class);
+
+        final List<String> results = runJobSuccessfully(job, jobInput, numRecords);
+
+        assertNumDocsProcessed(job, numRecords);
+        assertEquals(numRecords, job.getCounters().findCounter(ScanningXMLInputFormat.COUNTER_GROUP,
+                ScanningXMLInputFormat.RECORDS_READ).getValue());
+        boolean found = false;
+        for (String result : results) {
+            found |= result.contains("id=42") && result.contains("text=record 42");
+        }
+        assertTrue("Failed to extract record 42", found);
+    }
+
     private Configuration getDefaultXmlMapperConfiguration() throws Exception {
         Configuration conf = getBaseConfiguration();
         conf.set(COLLECTION, "collection");
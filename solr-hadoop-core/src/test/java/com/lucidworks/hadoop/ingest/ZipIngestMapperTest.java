@@ -1,5 +1,6 @@
 package com.lucidworks.hadoop.ingest;
 
+import com.lucidworks.hadoop.ingest.util.ContentSniffer;
 import com.lucidworks.hadoop.io.ZipFileInputFormat;
 import org.apache.commons.io.IOUtils;
 import org.apache.hadoop.conf.Configuration;
@@ -39,6 +40,26 @@ public class ZipIngestMapperTest extends BaseMiniClusterTestCase {
         assertEquals(3, results.size());
     }
 
+    @Test
+    public void testSkipTypes() throws Exception {
+        Configuration conf = getBaseConfiguration();
+        conf.set(ContentSniffer.SKIP_TYPES, "application/pdf");
+        Path zipFilePath = createThreeFileZipArchive(conf);
+        copyLocalInputToHdfs(zipFilePath.toUri().toString(), "test.zip");
+
+        Job job = createJobBasedOnConfiguration(conf, ZipIngestMapper.class);
+        ((JobConf)job.getConfiguration()).setInputFormat(ZipFileInputFormat.class);
+        final List<String> results = runJobSuccessfully(job, 2);
+
+        assertEquals(2, results.size());
+        for (String result : results) {
+            Assert.assertFalse(result.contains("test0.pdf"));
+        }
+        // a skipped file isn't a conversion failure
+        assertEquals(1, job.getCounters().findCounter(ContentSniffer.COUNTER_GROUP, ContentSniffer.SKIPPED).getValue());
+        assertEquals(0, job.getCounters().findCounter(BaseHadoopIngest.Counters.DOCS_CONVERT_FAILED).getValue());
+    }
+
     @Test
     public void testZipData() {
         final StringBuilder sb = new StringBuilder();
@@ -0,0 +1,164 @@
+package com.lucidworks.hadoop.io;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.BZip2Codec;
+import org.apache.hadoop.io.compress.SplitCompressionInputStream;
+import org.apache.hadoop.io.compress.SplittableCompressionCodec;
+import org.apache.hadoop.io.compress.bzip2.CBZip2OutputStream;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ScanningXMLInputFormatTest {
+
+  private static final int RECORDS = 20000;
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void testBzip2Splits() throws Exception {
+    // the records don't repeat a byte 4 times in a row, so every block holds as many bytes
+    File unaligned = temp.newFile("unaligned.xml.bz2");
+    write(unaligned, records(0));
+    List<Long> unalignedStarts = blockStarts(unaligned);
+    assertTrue(unalignedStarts.size() > 4);
+    long blockLength = unalignedStarts.get(1);
+
+    // records straddle the even blocks and start on the odd ones
+    String content = records(blockLength);
+    File aligned = temp.newFile("aligned.xml.bz2");
+    write(aligned, content);
+    List<Long> starts = blockStarts(aligned);
+    int recordStarts = 0;
+    for (int i = 1; i < starts.size(); i++) {
+      assertEquals(i * blockLength, (long) starts.get(i));
+      if (content.startsWith("<dok ", (int) (i * blockLength))) {
+        recordStarts++;
+      }
+    }
+    assertTrue(recordStarts > 1);
+
+    // more splits than blocks, so some splits start no block
+    assertEquals(expectedIds(), readIds(aligned, starts.size() * 3));
+    assertEquals(expectedIds(), readIds(aligned, 2));
+    assertEquals(expectedIds(), readIds(aligned, 1));
+  }
+
+  private static String records(long alignEvery) {
+    StringBuilder content = new StringBuilder("<root>\n");
+    for (int i = 0; i < RECORDS; i++) {
+      String record = "<dok id='" + Integer.toString(i, 36) + "'>record " + Integer.toString(i, 36) + "</dok>\n";
+      if (alignEvery > 0) {
+        long block = content.length() / alignEvery + 1;
+        if (block % 2 == 1 && content.length() + record.length() > block * alignEvery) {
+          while (content.length() < block * alignEvery) {
+            content.append(content.charAt(content.length() - 1) == ' ' ? '\n' : ' ');
+          }
+        }
+      }
+      content.append(record);
+    }
+    return content.append("</root>\n").toString();
+  }
+
+  private static void write(File file, String content) throws IOException {
+    OutputStream out = new FileOutputStream(file);
+    try {
+      out.write("BZ".getBytes(StandardCharsets.US_ASCII));
+      // 100k blocks
+      CBZip2OutputStream bzip = new CBZip2OutputStream(out, 1);
+      bzip.write(content.getBytes(StandardCharsets.US_ASCII));
+      bzip.close();
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * @return the uncompressed offsets the blocks of the file start at
+   */
+  private static List<Long> blockStarts(File file) throws IOException {
+    JobConf conf = new JobConf(false);
+    BZip2Codec codec = new BZip2Codec();
+    codec.setConf(conf);
+    FileSystem fs = FileSystem.getLocal(conf);
+    Path path = new Path(file.getAbsolutePath());
+    SplitCompressionInputStream in = codec.createInputStream(fs.open(path), null, 0,
+        fs.getFileStatus(path).getLen(), SplittableCompressionCodec.READ_MODE.BYBLOCK);
+    List<Long> starts = new ArrayList<Long>();
+    starts.add(0L);
+    try {
+      byte[] buffer = new byte[1];
+      long offset = 0;
+      long pos = in.getPos();
+      while (in.read(buffer, 0, 1) > 0) {
+        if (in.getPos() != pos) {
+          pos = in.getPos();
+          starts.add(offset);
+        }
+        offset++;
+      }
+    } finally {
+      in.close();
+    }
+    return starts;
+  }
+
+  private static List<String> readIds(File file, int numSplits) throws IOException {
+    JobConf conf = new JobConf(false);
+    conf.set(XMLInputFormat.START_TAG_KEY, "<dok ");
+    conf.set(XMLInputFormat.END_TAG_KEY, "</dok>");
+    conf.setInt(ScanningXMLInputFormat.BUFFER_SIZE, 4096);
+    FileInputFormat.setInputPaths(conf, new Path(file.getAbsolutePath()));
+    ScanningXMLInputFormat format = new ScanningXMLInputFormat();
+    format.configure(conf);
+
+    InputSplit[] splits = format.getSplits(conf, numSplits);
+    List<String> ids = new ArrayList<String>();
+    for (InputSplit split : splits) {
+      RecordReader<LongWritable, Text> reader = format.getRecordReader(split, conf, Reporter.NULL);
+      try {
+        LongWritable key = reader.createKey();
+        Text value = reader.createValue();
+        while (reader.next(key, value)) {
+          String record = value.toString();
+          assertTrue(record, record.startsWith("<dok id='") && record.endsWith("</dok>"));
+          ids.add(record.substring("<dok id='".length(), record.indexOf('\'', "<dok id='".length())));
+        }
+      } finally {
+        reader.close();
+      }
+    }
+    Collections.sort(ids);
+    return ids;
+  }
+
+  private static List<String> expectedIds() {
+    List<String> ids = new ArrayList<String>();
+    for (int i = 0; i < RECORDS; i++) {
+      ids.add(Integer.toString(i, 36));
+    }
+    Collections.sort(ids);
+    return ids;
+  }
+}